@@ -0,0 +1,84 @@
+package com.itahm;
+
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * topology 직렬화와 parse. 이전 방식(JSONObject)과 Topology 를 같은 입력으로 비교한다.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TopologyBenchmark {
+
+	@Param({"1000", "10000"})
+	public int size;
+	
+	private String text;
+	private JSONObject json;
+	private Topology topology;
+	
+	@Setup
+	public void setup() throws JSONException {
+		StringBuilder sb = new StringBuilder("{");
+		String id;
+		
+		for (int i=0; i<this.size; i++) {
+			id = address(i);
+			
+			if (i > 0) {
+				sb.append(',');
+			}
+			
+			sb.append('"').append(id).append("\":{")
+				.append("\"address\":\"").append(id).append("\",")
+				.append("\"x\":").append(i % 100 *12).append(',')
+				.append("\"y\":").append(i / 100 *12).append(',')
+				.append("\"name\":\"node-").append(i).append("\",")
+				.append("\"ifEntry\":{")
+				.append('"').append(address((i +1) % this.size)).append("\":\"ge-0/0/1\",")
+				.append('"').append(address((i +this.size -1) % this.size)).append("\":\"ge-0/0/2\"")
+				.append("}}");
+		}
+		
+		this.text = sb.append('}').toString();
+		this.json = new JSONObject(this.text);
+		this.topology = new Topology(Topology.parse(new JSONTokener(this.text)));
+	}
+	
+	private static String address(int i) {
+		return String.format("10.%d.%d.%d", i >> 16 & 0xff, i >> 8 & 0xff, i & 0xff);
+	}
+	
+	@Benchmark
+	public String jsonObject() {
+		return this.json.toString();
+	}
+	
+	@Benchmark
+	public String topology() {
+		return this.topology.toString();
+	}
+	
+	@Benchmark
+	public JSONObject parseJSONObject() throws JSONException {
+		return new JSONObject(this.text);
+	}
+	
+	@Benchmark
+	public Topology parseTopology() throws JSONException {
+		return new Topology(Topology.parse(new JSONTokener(this.text)));
+	}
+	
+}
@@ -0,0 +1,118 @@
+package com.itahm.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 비교 기준으로 남겨 둔 이전 Request 의 header 처리 (readLine, String.split, 소문자 변환).
+ */
+class LegacyParser {
+
+	private Map<String, String> header;
+	private byte [] buffer;
+	private String method;
+	private String uri;
+	private String version;
+	
+	boolean parse(ByteBuffer src) throws IOException, HTTPException {
+		String line;
+		
+		while ((line = readLine(src)) != null) {
+			if (parseHeader(line)) {
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	void reset() {
+		this.header = null;
+		this.buffer = null;
+	}
+	
+	String getMethod() {
+		return this.method;
+	}
+	
+	String getURI() {
+		return this.uri;
+	}
+	
+	String getHeader(String name) {
+		return this.header.get(name.toLowerCase());
+	}
+	
+	private boolean parseHeader(String line) throws HTTPException {
+		if (this.header == null) {
+			parseStartLine(line);
+		}
+		else {
+			if ("".equals(line)) {
+				return true;
+			}
+			else {
+				int index = line.indexOf(":");
+				
+				if (index == -1) {
+					throw new HTTPException("Invalid header");
+				}
+				
+				this.header.put(line.substring(0, index).toLowerCase(), line.substring(index + 1).trim());
+			}
+		}
+		
+		return false;
+	}
+	
+	private void parseStartLine(String line) throws HTTPException {
+		if (line.length() == 0) {
+			return;
+		}
+		
+		String [] token = line.split(" ");
+		if (token.length != 3) {
+			throw new HTTPException("Invalid start line");
+		}
+		
+		this.method = token[0];
+		this.uri = token[1];
+		this.version = token[2];
+		
+		this.header = new HashMap<String, String>();
+	}
+	
+	private String readLine(ByteBuffer src) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		
+		if (this.buffer != null) {
+			baos.write(this.buffer);
+			
+			this.buffer = null;
+		}
+		
+		byte b;
+		
+		while(src.hasRemaining()) {
+			b = src.get();
+			baos.write(b);
+			
+			if (b == Request.LF) {
+				byte [] bytes = baos.toByteArray();
+				int length = bytes.length;
+				
+				if (length > 1 && bytes[length - 2] == Request.CR) {
+					return new String(bytes, 0, length -2);
+				}
+			}
+		}
+		
+		this.buffer = baos.toByteArray();
+		
+		return null;
+	}
+	
+}
@@ -0,0 +1,674 @@
+package com.itahm.http;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Locale;
+
+import com.itahm.Mini;
+import com.itahm.probe.Prober;
+import com.itahm.probe.Resolver;
+import com.itahm.store.Journal;
+
+/**
+ * loopback 으로 Listener 에 부하를 거는 NIO client.
+ * 각 연결은 응답을 받는 대로 다음 요청을 보내며(closed loop) 한 연결에 최대 depth 개의 요청을 pipelining 한다.
+ *
+ * java -cp target/benchmarks.jar com.itahm.http.LoadTest [options]
+ *   --serve mini|static  대상 server 를 같은 process 에서 띄운다. 없으면 이미 떠 있는 server 에 접속한다.
+ *   --host 127.0.0.1 --port 2015 --path /
+ *   -c 연결 수(64) -t thread 수(1) -p pipelining depth(1) -b POST body 크기(0 이면 GET)
+ *   -d 측정 시간 초(10) -w warm up 초(2) --close 요청마다 연결을 새로 맺는다.
+ *   -r --serve 로 띄운 server 의 reactor(selector thread) 수(1)
+ *
+ * mini 는 현재 directory 에 journal 과 history 를 쓰므로 빈 directory 에서 실행한다.
+ * mini 로 보내는 POST body 는 node 하나의 topology 이므로 기존 topology 를 덮어쓴다.
+ * static 은 현재 directory 의 file 을 내려준다.
+ */
+public class LoadTest {
+	
+	private final static int BUF_SIZE = 64 *1024;
+	
+	private final InetSocketAddress target;
+	private final byte [] request;
+	private final int depth;
+	private final boolean keepAlive;
+	private volatile boolean measuring = false;
+	private volatile boolean running = true;
+	
+	public LoadTest(InetSocketAddress target, byte [] request, int depth, boolean keepAlive) {
+		this.target = target;
+		this.request = request;
+		this.depth = keepAlive? depth: 1;
+		this.keepAlive = keepAlive;
+	}
+	
+	public static void main(String [] args) throws Exception {
+		String serve = null;
+		String host = "127.0.0.1";
+		String path = "/";
+		int port = 2015;
+		int connections = 64;
+		int threads = 1;
+		int depth = 1;
+		int size = 0;
+		int duration = 10;
+		int warmup = 2;
+		int reactors = 1;
+		boolean keepAlive = true;
+		
+		try {
+			for (int i=0; i<args.length; i++) {
+				switch (args[i]) {
+				case "--serve":
+					serve = args[++i];
+					
+					break;
+				case "--host":
+					host = args[++i];
+					
+					break;
+				case "--port":
+					port = Integer.parseInt(args[++i]);
+					
+					break;
+				case "--path":
+					path = args[++i];
+					
+					break;
+				case "-c":
+					connections = Integer.parseInt(args[++i]);
+					
+					break;
+				case "-t":
+					threads = Integer.parseInt(args[++i]);
+					
+					break;
+				case "-p":
+					depth = Integer.parseInt(args[++i]);
+					
+					break;
+				case "-b":
+					size = Integer.parseInt(args[++i]);
+					
+					break;
+				case "-d":
+					duration = Integer.parseInt(args[++i]);
+					
+					break;
+				case "-w":
+					warmup = Integer.parseInt(args[++i]);
+					
+					break;
+				case "-r":
+					reactors = Integer.parseInt(args[++i]);
+					
+					break;
+				case "--close":
+					keepAlive = false;
+					
+					break;
+				default:
+					throw new IllegalArgumentException(args[i]);
+				}
+			}
+			
+			if (connections < 1 || threads < 1 || depth < 1 || size < 0 || duration < 1 || warmup < 0 || reactors < 1) {
+				throw new IllegalArgumentException();
+			}
+		} catch (RuntimeException re) {
+			System.out.println("usage: LoadTest [--serve mini|static] [--host ip] [--port n] [--path uri]"+
+				" [-c connections] [-t threads] [-p depth] [-b body] [-d seconds] [-w seconds] [-r reactors] [--close]");
+			
+			return;
+		}
+		
+		Listener server = null;
+		
+		if ("mini".equals(serve)) {
+			// 이름을 찾거나 probe 하지 않으므로 network 없이 돈다.
+			server = new Mini(port, reactors, new Prober() {
+				
+				@Override
+				public void probe(InetAddress target, int timeout, Callback callback) {
+					callback.onResult(true, 0);
+				}
+				
+				@Override
+				public int getCapacity() {
+					return Integer.MAX_VALUE;
+				}
+				
+				@Override
+				public void close() {
+				}
+				
+			}, Journal.Sync.NEVER, new Resolver.Lookup() {
+				
+				@Override
+				public InetAddress lookup(String host) throws UnknownHostException {
+					return InetAddress.getByAddress(host, InetAddress.getLoopbackAddress().getAddress());
+				}
+				
+			});
+		}
+		else if ("static".equals(serve)) {
+			server = Listener.fileServer(new InetSocketAddress(host, port), reactors);
+		}
+		else if (serve != null) {
+			System.out.println("unknown server "+ serve);
+			
+			return;
+		}
+		
+		try {
+			LoadTest test = new LoadTest(new InetSocketAddress(host, port), request(host, port, path, size, keepAlive), depth, keepAlive);
+			
+			System.out.println(String.format("%s:%d%s %s, reactors %s, connections %d, threads %d, pipelining %d, keep-alive %b, body %dB, %ds",
+				host, port, path, serve == null? "": "("+ serve +")", serve == null? "-": String.valueOf(reactors), connections, threads, depth, keepAlive, size, duration));
+			
+			test.run(connections, threads, warmup, duration);
+		} finally {
+			if (server != null) {
+				server.close();
+			}
+		}
+	}
+	
+	private static byte [] request(String host, int port, String path, int size, boolean keepAlive) {
+		StringBuilder sb = new StringBuilder();
+		byte [] header, body = null, message;
+		
+		if (size > 0) {
+			body = body(size);
+		}
+		
+		sb.append(body == null? "GET ": "POST ").append(path).append(" HTTP/1.1\r\n")
+			.append("Host: ").append(host).append(':').append(port).append("\r\n")
+			.append("User-Agent: LoadTest\r\n");
+		
+		if (!keepAlive) {
+			sb.append("Connection: close\r\n");
+		}
+		
+		if (body != null) {
+			sb.append("Content-Type: application/json\r\n")
+				.append("Content-Length: ").append(body.length).append("\r\n");
+		}
+		
+		header = sb.append("\r\n").toString().getBytes(StandardCharsets.US_ASCII);
+		
+		if (body == null) {
+			return header;
+		}
+		
+		message = Arrays.copyOf(header, header.length + body.length);
+		
+		System.arraycopy(body, 0, message, header.length, body.length);
+		
+		return message;
+	}
+	
+	/**
+	 * node 하나의 topology 를 size 에 맞도록 채운다.
+	 */
+	private static byte [] body(int size) {
+		String head = "{\"127.0.0.1\":{\"address\":\"127.0.0.1\",\"note\":\"";
+		String tail = "\"}}";
+		StringBuilder sb = new StringBuilder(head);
+		
+		for (int i=head.length() + tail.length(); i<size; i++) {
+			sb.append('a');
+		}
+		
+		return sb.append(tail).toString().getBytes(StandardCharsets.US_ASCII);
+	}
+	
+	public void run(int connections, int threads, int warmup, int duration) throws IOException, InterruptedException {
+		Worker [] workers = new Worker [Math.min(threads, connections)];
+		Recorder recorder = new Recorder();
+		long requests = 0, failures = 0, errors = 0, connects = 0, bytes = 0;
+		long start, elapsed;
+		
+		for (int i=0; i<workers.length; i++) {
+			workers[i] = new Worker(connections / workers.length + (i < connections % workers.length? 1: 0));
+			
+			workers[i].setName("load-"+ i);
+			workers[i].start();
+		}
+		
+		Thread.sleep(warmup *1000L);
+		
+		this.measuring = true;
+		start = System.nanoTime();
+		
+		Thread.sleep(duration *1000L);
+		
+		this.measuring = false;
+		elapsed = System.nanoTime() - start;
+		this.running = false;
+		
+		for (Worker worker : workers) {
+			worker.selector.wakeup();
+			worker.join();
+			
+			recorder.add(worker.recorder);
+			
+			requests += worker.requests;
+			failures += worker.failures;
+			errors += worker.errors;
+			connects += worker.connects;
+			bytes += worker.bytes;
+		}
+		
+		System.out.println(String.format(Locale.US, "requests %d, non-2xx %d, errors %d, connects %d",
+			requests, failures, errors, connects));
+		System.out.println(String.format(Locale.US, "throughput %.1f req/s, %.2f MB/s",
+			requests *1e9 / elapsed, bytes *1e9 / elapsed / (1 << 20)));
+		System.out.println(String.format(Locale.US, "latency p50 %.3fms, p99 %.3fms, p999 %.3fms, max %.3fms",
+			recorder.percentile(.5) / 1000.0, recorder.percentile(.99) / 1000.0, recorder.percentile(.999) / 1000.0, recorder.getMax() / 1000.0));
+	}
+	
+	/**
+	 * 연결 일부를 하나의 selector 로 돌린다. 측정 값은 이 thread 만 쓰고 join 뒤에 읽는다.
+	 */
+	private class Worker extends Thread {
+		
+		private final Selector selector;
+		private final Recorder recorder = new Recorder();
+		private final int connections;
+		private long requests = 0;
+		private long failures = 0;
+		private long errors = 0;
+		private long connects = 0;
+		private long bytes = 0;
+		
+		private Worker(int connections) throws IOException {
+			this.selector = Selector.open();
+			this.connections = connections;
+		}
+		
+		@Override
+		public void run() {
+			Iterator<SelectionKey> iterator;
+			SelectionKey key;
+			Connection connection;
+			
+			for (int i=0; i<this.connections; i++) {
+				connect();
+			}
+			
+			try {
+				while (running) {
+					this.selector.select(100);
+					
+					iterator = this.selector.selectedKeys().iterator();
+					while (iterator.hasNext()) {
+						key = iterator.next();
+						iterator.remove();
+						
+						connection = (Connection)key.attachment();
+						
+						try {
+							if (key.isConnectable()) {
+								connection.onConnect();
+							}
+							
+							if (key.isValid() && key.isReadable()) {
+								connection.read();
+							}
+							
+							if (key.isValid() && key.isWritable()) {
+								connection.write();
+							}
+						} catch (IOException ioe) {
+							if (measuring) {
+								this.errors++;
+							}
+							
+							connection.close();
+							
+							connect();
+						}
+					}
+				}
+			} catch (IOException ioe) {
+				ioe.printStackTrace();
+			} finally {
+				for (SelectionKey k : this.selector.keys()) {
+					((Connection)k.attachment()).close();
+				}
+				
+				try {
+					this.selector.close();
+				} catch (IOException ioe) {
+				}
+			}
+		}
+		
+		private void connect() {
+			if (!running) {
+				return;
+			}
+			
+			SocketChannel channel = null;
+			
+			try {
+				channel = SocketChannel.open();
+				
+				channel.configureBlocking(false);
+				channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+				
+				Connection connection = new Connection(channel);
+				
+				connection.key = channel.register(this.selector, SelectionKey.OP_CONNECT, connection);
+				
+				if (channel.connect(target)) {
+					connection.onConnect();
+				}
+			} catch (IOException ioe) {
+				if (measuring) {
+					this.errors++;
+				}
+				
+				if (channel != null) {
+					try {
+						channel.close();
+					} catch (IOException ioe2) {
+					}
+				}
+			}
+		}
+		
+		private class Connection {
+			
+			private final SocketChannel channel;
+			private final ByteBuffer buffer = ByteBuffer.allocate(BUF_SIZE);
+			// 보낸 요청의 시각. 응답은 요청 순서대로 온다.
+			private final long [] sent = new long [depth];
+			private SelectionKey key;
+			private ByteBuffer out;
+			private int head = 0;
+			private int count = 0;
+			private int issued = 0;
+			private int status;
+			// 아직 받지 않은 body 의 크기, header 를 기다리는 중이면 -1
+			private long remaining = -1;
+			private boolean closed = false;
+			
+			private Connection(SocketChannel channel) {
+				this.channel = channel;
+			}
+			
+			private void onConnect() throws IOException {
+				if (!this.channel.finishConnect()) {
+					return;
+				}
+				
+				connects++;
+				
+				write();
+			}
+			
+			private void write() throws IOException {
+				while (true) {
+					if (this.out == null) {
+						if (!running || this.count == depth || !keepAlive && this.issued > 0) {
+							break;
+						}
+						
+						this.out = ByteBuffer.wrap(request);
+						this.sent[(this.head + this.count) % depth] = System.nanoTime();
+						this.count++;
+						this.issued++;
+					}
+					
+					this.channel.write(this.out);
+					
+					if (this.out.hasRemaining()) {
+						this.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+						
+						return;
+					}
+					
+					this.out = null;
+				}
+				
+				this.key.interestOps(SelectionKey.OP_READ);
+			}
+			
+			private void read() throws IOException {
+				int bytes = this.channel.read(this.buffer);
+				
+				if (bytes < 0) {
+					if (this.count > 0) {
+						throw new IOException("connection closed by server");
+					}
+					
+					// 쉬고 있던 연결을 server 가 닫았다.
+					close();
+					
+					connect();
+					
+					return;
+				}
+				
+				if (measuring) {
+					Worker.this.bytes += bytes;
+				}
+				
+				this.buffer.flip();
+				
+				while (!this.closed && parse());
+				
+				this.buffer.compact();
+				
+				if (!this.buffer.hasRemaining()) {
+					throw new IOException("response header too large");
+				}
+			}
+			
+			private boolean parse() throws IOException {
+				int skip;
+				
+				if (this.remaining < 0) {
+					int end = find(this.buffer);
+					
+					if (end < 0) {
+						return false;
+					}
+					
+					String header = new String(this.buffer.array(), this.buffer.position(), end - this.buffer.position(), StandardCharsets.US_ASCII);
+					
+					this.buffer.position(end +4);
+					
+					try {
+						this.status = Integer.parseInt(header.substring(9, 12));
+					} catch (RuntimeException re) {
+						throw new IOException("malformed status line");
+					}
+					
+					this.remaining = length(header, this.status);
+				}
+				
+				skip = (int)Math.min(this.remaining, this.buffer.remaining());
+				
+				this.buffer.position(this.buffer.position() + skip);
+				this.remaining -= skip;
+				
+				if (this.remaining > 0) {
+					return false;
+				}
+				
+				this.remaining = -1;
+				
+				onResponse();
+				
+				return true;
+			}
+			
+			private void onResponse() throws IOException {
+				long latency = System.nanoTime() - this.sent[this.head];
+				
+				this.head = (this.head +1) % depth;
+				this.count--;
+				
+				if (measuring) {
+					requests++;
+					
+					recorder.record(latency);
+					
+					if (this.status < 200 || this.status >= 300) {
+						failures++;
+					}
+				}
+				
+				if (!keepAlive) {
+					close();
+					
+					connect();
+				}
+				else {
+					write();
+				}
+			}
+			
+			private void close() {
+				if (this.closed) {
+					return;
+				}
+				
+				this.closed = true;
+				
+				try {
+					this.channel.close();
+				} catch (IOException ioe) {
+				}
+			}
+			
+		}
+		
+	}
+	
+	/**
+	 * buffer 의 position 부터 빈 줄(CRLFCRLF)의 위치를 찾는다.
+	 */
+	private static int find(ByteBuffer buffer) {
+		byte [] array = buffer.array();
+		
+		for (int i=buffer.position(), limit=buffer.limit() -3; i<limit; i++) {
+			if (array[i] == '\r' && array[i +1] == '\n' && array[i +2] == '\r' && array[i +3] == '\n') {
+				return i;
+			}
+		}
+		
+		return -1;
+	}
+	
+	private static long length(String header, int status) throws IOException {
+		int index = header.toLowerCase(Locale.US).indexOf("\r\ncontent-length:");
+		
+		if (index < 0) {
+			if (status == 204 || status == 304 || status < 200) {
+				return 0;
+			}
+			
+			throw new IOException("response without content length");
+		}
+		
+		int end = header.indexOf("\r\n", index +2);
+		
+		try {
+			return Long.parseLong(header.substring(index + 17, end < 0? header.length(): end).trim());
+		} catch (NumberFormatException nfe) {
+			throw new IOException("malformed content length");
+		}
+	}
+	
+	/**
+	 * microseconds 단위 latency 의 log-linear histogram. 2 의 거듭제곱마다 32 개로 나누므로 오차는 3% 안쪽이다.
+	 */
+	static class Recorder {
+		
+		private final static int SUB = 5;
+		private final static int LINEAR = 2 << SUB;
+		
+		private final long [] counts = new long [64 << SUB];
+		private long total = 0;
+		private long max = 0;
+		
+		void record(long nanos) {
+			long micros = Math.max(0, nanos / 1000);
+			
+			this.counts[index(micros)]++;
+			this.total++;
+			this.max = Math.max(this.max, micros);
+		}
+		
+		void add(Recorder recorder) {
+			for (int i=0; i<this.counts.length; i++) {
+				this.counts[i] += recorder.counts[i];
+			}
+			
+			this.total += recorder.total;
+			this.max = Math.max(this.max, recorder.max);
+		}
+		
+		long getMax() {
+			return this.max;
+		}
+		
+		/**
+		 * 해당 bucket 의 상한을 돌려준다.
+		 */
+		long percentile(double p) {
+			long rank = (long)Math.ceil(p * this.total);
+			long sum = 0;
+			
+			if (this.total == 0) {
+				return 0;
+			}
+			
+			for (int i=0; i<this.counts.length; i++) {
+				sum += this.counts[i];
+				
+				if (sum >= rank) {
+					return Math.min(this.max, value(i +1) -1);
+				}
+			}
+			
+			return this.max;
+		}
+		
+		private static int index(long value) {
+			if (value < LINEAR) {
+				return (int)value;
+			}
+			
+			int exponent = 63 - Long.numberOfLeadingZeros(value);
+			
+			return ((exponent - SUB) << SUB) + (int)(value >>> (exponent - SUB));
+		}
+		
+		private static long value(int index) {
+			if (index < LINEAR) {
+				return index;
+			}
+			
+			int exponent = (index >> SUB) + SUB -1;
+			
+			return (long)((index & ((1 << SUB) -1)) | 1 << SUB) << (exponent - SUB);
+		}
+		
+	}
+	
+}
@@ -0,0 +1,136 @@
+package com.itahm.http;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketOption;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.spi.SelectorProvider;
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * 쓰는 것은 모두 버리고 읽을 것은 없는 channel. Request 를 socket 없이 재기 위해 쓴다.
+ */
+class NullChannel extends SocketChannel {
+
+	private final static InetSocketAddress ADDRESS = new InetSocketAddress("127.0.0.1", 2015);
+	
+	private long written = 0;
+	
+	NullChannel() {
+		super(SelectorProvider.provider());
+	}
+	
+	long getWritten() {
+		return this.written;
+	}
+	
+	@Override
+	public int read(ByteBuffer dst) {
+		return 0;
+	}
+	
+	@Override
+	public long read(ByteBuffer [] dsts, int offset, int length) {
+		return 0;
+	}
+	
+	@Override
+	public int write(ByteBuffer src) {
+		int bytes = src.remaining();
+		
+		src.position(src.limit());
+		
+		this.written += bytes;
+		
+		return bytes;
+	}
+	
+	@Override
+	public long write(ByteBuffer [] srcs, int offset, int length) {
+		long bytes = 0;
+		
+		for (int i=offset; i<offset + length; i++) {
+			bytes += write(srcs[i]);
+		}
+		
+		return bytes;
+	}
+	
+	@Override
+	public SocketChannel bind(SocketAddress local) {
+		return this;
+	}
+	
+	@Override
+	public <T> SocketChannel setOption(SocketOption<T> name, T value) {
+		return this;
+	}
+	
+	@Override
+	public <T> T getOption(SocketOption<T> name) {
+		return null;
+	}
+	
+	@Override
+	public Set<SocketOption<?>> supportedOptions() {
+		return Collections.emptySet();
+	}
+	
+	@Override
+	public SocketChannel shutdownInput() {
+		return this;
+	}
+	
+	@Override
+	public SocketChannel shutdownOutput() {
+		return this;
+	}
+	
+	@Override
+	public Socket socket() {
+		return null;
+	}
+	
+	@Override
+	public boolean isConnected() {
+		return true;
+	}
+	
+	@Override
+	public boolean isConnectionPending() {
+		return false;
+	}
+	
+	@Override
+	public boolean connect(SocketAddress remote) {
+		return true;
+	}
+	
+	@Override
+	public boolean finishConnect() {
+		return true;
+	}
+	
+	@Override
+	public SocketAddress getRemoteAddress() {
+		return ADDRESS;
+	}
+	
+	@Override
+	public SocketAddress getLocalAddress() {
+		return ADDRESS;
+	}
+	
+	@Override
+	protected void implCloseSelectableChannel() throws IOException {
+	}
+	
+	@Override
+	protected void implConfigureBlocking(boolean block) throws IOException {
+	}
+	
+}
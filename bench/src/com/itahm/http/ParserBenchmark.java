@@ -0,0 +1,74 @@
+package com.itahm.http;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * 새 Parser 와 이전 방식(LegacyParser)의 header 처리 비교.
+ * 요청당 할당량은 -prof gc 의 gc.alloc.rate.norm 으로 확인한다.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ParserBenchmark {
+
+	private final static String REQUEST =
+		"GET /changes?since=16f3a2b4c00-1024 HTTP/1.1\r\n"+
+		"Host: 127.0.0.1:2015\r\n"+
+		"Connection: keep-alive\r\n"+
+		"Accept: application/json, text/plain, */*\r\n"+
+		"User-Agent: Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/79.0.3945.88 Safari/537.36\r\n"+
+		"Origin: http://itahm.com\r\n"+
+		"Referer: http://itahm.com/\r\n"+
+		"Accept-Encoding: gzip, deflate, br\r\n"+
+		"Accept-Language: ko-KR,ko;q=0.9,en-US;q=0.8,en;q=0.7\r\n"+
+		"If-None-Match: \"16f3a2b4c00-1024\"\r\n"+
+		"\r\n";
+	
+	private ByteBuffer src;
+	private Parser parser;
+	private LegacyParser legacy;
+	
+	@Setup
+	public void setup() {
+		this.src = ByteBuffer.wrap(REQUEST.getBytes(StandardCharsets.US_ASCII));
+		this.parser = new Parser();
+		this.legacy = new LegacyParser();
+	}
+	
+	@Benchmark
+	public void parser(Blackhole bh) throws HTTPException {
+		this.src.rewind();
+		this.parser.reset();
+		
+		bh.consume(this.parser.parse(this.src));
+		bh.consume(this.parser.getMethod());
+		bh.consume(this.parser.getURI());
+		bh.consume(this.parser.getHeader("If-None-Match"));
+		bh.consume(this.parser.getHeaderAsLong("Content-Length"));
+	}
+	
+	@Benchmark
+	public void legacy(Blackhole bh) throws IOException, HTTPException {
+		this.src.rewind();
+		this.legacy.reset();
+		
+		bh.consume(this.legacy.parse(this.src));
+		bh.consume(this.legacy.getMethod());
+		bh.consume(this.legacy.getURI());
+		bh.consume(this.legacy.getHeader("If-None-Match"));
+		bh.consume(this.legacy.getHeader("Content-Length"));
+	}
+	
+}
@@ -0,0 +1,113 @@
+package com.itahm.http;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Request.parse 부터 응답을 보낼 때까지의 비용. 응답은 NullChannel 이 버리므로 network 비용은 빠진다.
+ * pipelined 는 한 번에 DEPTH 개의 요청이 도착한 경우로, 결과는 요청 DEPTH 개 단위다.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class RequestBenchmark {
+
+	private final static String GET =
+		"GET /changes?since=16f3a2b4c00-1024 HTTP/1.1\r\n"+
+		"Host: 127.0.0.1:2015\r\n"+
+		"Connection: keep-alive\r\n"+
+		"Accept: application/json, text/plain, */*\r\n"+
+		"User-Agent: Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/79.0.3945.88 Safari/537.36\r\n"+
+		"Origin: http://itahm.com\r\n"+
+		"Referer: http://itahm.com/\r\n"+
+		"Accept-Encoding: gzip, deflate, br\r\n"+
+		"Accept-Language: ko-KR,ko;q=0.9,en-US;q=0.8,en;q=0.7\r\n"+
+		"If-None-Match: \"16f3a2b4c00-1024\"\r\n"+
+		"\r\n";
+	private final static String BODY = "{\"10.0.0.1\":{\"address\":\"10.0.0.1\",\"x\":120,\"y\":80,\"ifEntry\":{\"10.0.0.2\":\"ge-0/0/1\"}}}";
+	private final static String POST =
+		"POST / HTTP/1.1\r\n"+
+		"Host: 127.0.0.1:2015\r\n"+
+		"Connection: keep-alive\r\n"+
+		"Content-Type: application/json;charset=UTF-8\r\n"+
+		"Content-Length: "+ BODY.length() +"\r\n"+
+		"Origin: http://itahm.com\r\n"+
+		"Referer: http://itahm.com/\r\n"+
+		"\r\n"+
+		BODY;
+	private final static int DEPTH = 16;
+	private final static byte [] RESPONSE = "{}".getBytes(StandardCharsets.US_ASCII);
+	
+	@Param({"GET", "POST"})
+	public String method;
+	
+	private Listener listener;
+	private Request request;
+	private ByteBuffer single;
+	private ByteBuffer pipelined;
+	
+	@Setup
+	public void setup() throws IOException {
+		String message = "GET".equals(this.method)? GET: POST;
+		StringBuilder sb = new StringBuilder();
+		
+		for (int i=0; i<DEPTH; i++) {
+			sb.append(message);
+		}
+		
+		this.single = ByteBuffer.wrap(message.getBytes(StandardCharsets.US_ASCII));
+		this.pipelined = ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.US_ASCII));
+		
+		this.listener = new Listener(new InetSocketAddress("127.0.0.1", 0)) {
+			
+			@Override
+			protected void onRequest(Request request) {
+				try {
+					request.sendResponse(Response.getInstance(Response.Status.OK, RESPONSE)
+						.setResponseHeader("Content-Type", "application/json"));
+				} catch (IOException ioe) {
+					ioe.printStackTrace();
+				}
+			}
+		};
+		
+		this.request = new Request(new NullChannel(), this.listener);
+	}
+	
+	@TearDown
+	public void tearDown() throws IOException {
+		this.request.close();
+		this.listener.close();
+	}
+	
+	@Benchmark
+	public void single(Blackhole bh) throws IOException {
+		this.single.rewind();
+		this.request.parse(this.single);
+		
+		bh.consume(this.request);
+	}
+	
+	@Benchmark
+	public void pipelined(Blackhole bh) throws IOException {
+		this.pipelined.rewind();
+		this.request.parse(this.pipelined);
+		
+		bh.consume(this.request);
+	}
+	
+}
@@ -0,0 +1,66 @@
+package com.itahm.http;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * 응답 생성 비용. build 는 header 와 body 를 하나의 배열로 복사하고
+ * buildBuffers 는 body 를 복사하지 않으며 header 를 pool 의 direct buffer 에 만든다.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ResponseBenchmark {
+
+	// 작은 JSON 응답과 큰 topology 응답
+	@Param({"64", "1048576"})
+	public int size;
+	
+	private byte [] body;
+	private final BufferPool pool = new BufferPool(1024, 16);
+	
+	@Setup
+	public void setup() {
+		this.body = new byte [this.size];
+		
+		Arrays.fill(this.body, (byte)'a');
+	}
+	
+	@Benchmark
+	public ByteBuffer build() throws IOException {
+		return Response.getInstance(Response.Status.OK, this.body)
+			.setResponseHeader("Content-Type", "application/json")
+			.setResponseHeader("ETag", "\"16f3a2b4c00-1024\"")
+			.build();
+	}
+	
+	@Benchmark
+	public ByteBuffer [] buildBuffers() throws IOException {
+		ByteBuffer [] message = Response.getInstance(Response.Status.OK, this.body)
+			.setResponseHeader("Content-Type", "application/json")
+			.setResponseHeader("ETag", "\"16f3a2b4c00-1024\"")
+			.buildBuffers(this.pool);
+		
+		// Request 가 header 를 다 보낸 뒤처럼 돌려준다.
+		this.pool.release(message[0]);
+		
+		return message;
+	}
+	
+	@Benchmark
+	public ByteBuffer notFound() throws IOException {
+		return Response.getInstance(Response.Status.NOTFOUND).build();
+	}
+	
+}
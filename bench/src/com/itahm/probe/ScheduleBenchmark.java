@@ -0,0 +1,96 @@
+package com.itahm.probe;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * 대상의 등록과 해제 비용. 이전의 대상별 Timer 방식과 ProbeEngine 을 비교한다.
+ * topology 가 바뀔 때마다 일어나는 일이므로 대상 수가 많을수록 중요하다.
+ * 부하 아래에서 주기를 지키는지는 ScheduleLoadTest 로 잰다.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ScheduleBenchmark {
+
+	private final static long INTERVAL = 10000;
+	
+	private ProbeEngine engine;
+	private Timer timer;
+	private InetAddress address;
+	
+	@Setup
+	public void setup() throws UnknownHostException {
+		this.address = InetAddress.getByName("127.0.0.1");
+		this.engine = new ProbeEngine(new ProbeEngine.Handler() {
+
+			@Override
+			public void onProbe(ProbeEngine.Target target, boolean reachable, long rtt) {
+			}
+
+			@Override
+			public void onLate(ProbeEngine.Target target, long lag) {
+			}
+			
+		}, new Prober() {
+
+			@Override
+			public void probe(InetAddress target, int timeout, Callback callback) {
+				callback.onResult(true, 0);
+			}
+
+			@Override
+			public int getCapacity() {
+				return Integer.MAX_VALUE;
+			}
+
+			@Override
+			public void close() {
+			}
+			
+		}, INTERVAL, 1000, 64);
+		
+		this.timer = new Timer(true);
+	}
+	
+	@TearDown
+	public void tearDown() throws IOException {
+		this.engine.close();
+		this.timer.cancel();
+	}
+	
+	@Benchmark
+	public void engine() {
+		this.engine.remove(this.engine.add("127.0.0.1", this.address, null));
+	}
+	
+	@Benchmark
+	public void timer() {
+		TimerTask task = new TimerTask() {
+
+			@Override
+			public void run() {
+			}
+		};
+		
+		this.timer.schedule(task, INTERVAL, INTERVAL);
+		
+		task.cancel();
+		
+		this.timer.purge();
+	}
+	
+}
@@ -0,0 +1,196 @@
+package com.itahm.probe;
+
+import java.net.InetAddress;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 대상 n 개를 stub prober 로 돌리며 ProbeEngine 이 주기를 지키는지 잰다.
+ * 초당 시작한 probe 수(tick)를 기대값(n / interval)과 비교하고, 주기가 예정보다 늦게 시작한 시간(lag)의 분포를 보여준다.
+ *
+ * java -cp target/benchmarks.jar com.itahm.probe.ScheduleLoadTest [options]
+ *   -n 대상 수(5000) -i interval ms(1000) -t timeout ms(5000) -c 동시 probe 한도(4096)
+ *   -r stub 의 응답 시간 ms(0 이면 scheduler thread 에서 바로 끝낸다)
+ *   -d 측정 시간 초(10) -w warm up 초(2)
+ */
+public class ScheduleLoadTest implements ProbeEngine.Handler {
+	
+	// 이보다 큰 lag 는 마지막 칸에 모은다.
+	private final static int MAX_LAG = 60000;
+	
+	private final AtomicLongArray lags = new AtomicLongArray(MAX_LAG + 1);
+	private final LongAdder probes = new LongAdder();
+	private final LongAdder behind = new LongAdder();
+	private volatile boolean measuring = false;
+	
+	public static void main(String [] args) throws Exception {
+		int targets = 5000;
+		int interval = 1000;
+		int timeout = 5000;
+		int concurrency = 4096;
+		int rtt = 0;
+		int duration = 10;
+		int warmup = 2;
+		
+		try {
+			for (int i=0; i<args.length; i++) {
+				switch (args[i]) {
+				case "-n":
+					targets = Integer.parseInt(args[++i]);
+					
+					break;
+				case "-i":
+					interval = Integer.parseInt(args[++i]);
+					
+					break;
+				case "-t":
+					timeout = Integer.parseInt(args[++i]);
+					
+					break;
+				case "-c":
+					concurrency = Integer.parseInt(args[++i]);
+					
+					break;
+				case "-r":
+					rtt = Integer.parseInt(args[++i]);
+					
+					break;
+				case "-d":
+					duration = Integer.parseInt(args[++i]);
+					
+					break;
+				case "-w":
+					warmup = Integer.parseInt(args[++i]);
+					
+					break;
+				default:
+					throw new IllegalArgumentException(args[i]);
+				}
+			}
+			
+			if (targets < 1 || interval < 1 || timeout < 1 || concurrency < 1 || rtt < 0 || duration < 1 || warmup < 0) {
+				throw new IllegalArgumentException();
+			}
+		} catch (RuntimeException re) {
+			System.out.println("usage: ScheduleLoadTest [-n targets] [-i interval] [-t timeout] [-c concurrency] [-r rtt] [-d seconds] [-w seconds]");
+			
+			return;
+		}
+		
+		System.out.println(String.format("targets %d, interval %dms, timeout %dms, concurrency %d, rtt %dms, %ds",
+			targets, interval, timeout, concurrency, rtt, duration));
+		
+		new ScheduleLoadTest().run(targets, interval, timeout, concurrency, rtt, warmup, duration);
+	}
+	
+	public void run(int targets, int interval, int timeout, int concurrency, int rtt, int warmup, int duration) throws Exception {
+		ScheduledExecutorService responder = Executors.newSingleThreadScheduledExecutor(new ProbeEngine.Factory("responder"));
+		ProbeEngine engine = new ProbeEngine(this, new Stub(responder, rtt), interval, timeout, concurrency);
+		InetAddress address = InetAddress.getLoopbackAddress();
+		long late, start, elapsed, count;
+		
+		try {
+			for (int i=0; i<targets; i++) {
+				engine.add("target-"+ i, address, null);
+			}
+			
+			Thread.sleep(warmup *1000L);
+			
+			late = engine.getLateCount();
+			this.measuring = true;
+			start = System.nanoTime();
+			
+			Thread.sleep(duration *1000L);
+			
+			this.measuring = false;
+			elapsed = System.nanoTime() - start;
+			late = engine.getLateCount() - late;
+		} finally {
+			engine.close();
+			responder.shutdownNow();
+		}
+		
+		count = this.probes.sum();
+		
+		System.out.println(String.format("ticks/s %.0f (expected %.0f), late or skipped periods %d, fell behind %d",
+			count * 1e9 / elapsed, targets * 1000d / interval, late, this.behind.sum()));
+		System.out.println(String.format("lag ms p50 %d, p99 %d, p999 %d, max %d",
+			percentile(.5), percentile(.99), percentile(.999), percentile(1)));
+	}
+	
+	@Override
+	public void onProbe(ProbeEngine.Target target, boolean reachable, long rtt) {
+		if (this.measuring) {
+			this.probes.increment();
+			this.lags.incrementAndGet((int)Math.max(0, Math.min(MAX_LAG, target.getLag())));
+		}
+	}
+	
+	@Override
+	public void onLate(ProbeEngine.Target target, long lag) {
+		if (this.measuring) {
+			this.behind.increment();
+		}
+	}
+	
+	private long percentile(double p) {
+		long total = this.probes.sum();
+		long rank = Math.max(1, (long)Math.ceil(p * total));
+		long sum = 0;
+		
+		for (int i=0; i<this.lags.length(); i++) {
+			sum += this.lags.get(i);
+			
+			if (sum >= rank) {
+				return i;
+			}
+		}
+		
+		return 0;
+	}
+	
+	/**
+	 * 언제나 reachable 로 답한다. rtt 가 0 이면 호출한 thread 에서 바로 답한다.
+	 */
+	private static class Stub implements Prober {
+		
+		private final ScheduledExecutorService responder;
+		private final int rtt;
+		
+		private Stub(ScheduledExecutorService responder, int rtt) {
+			this.responder = responder;
+			this.rtt = rtt;
+		}
+		
+		@Override
+		public void probe(InetAddress target, int timeout, final Callback callback) {
+			if (this.rtt == 0) {
+				callback.onResult(true, 0);
+				
+				return;
+			}
+			
+			this.responder.schedule(new Runnable() {
+
+				@Override
+				public void run() {
+					callback.onResult(true, rtt);
+				}
+			}, this.rtt, TimeUnit.MILLISECONDS);
+		}
+		
+		@Override
+		public int getCapacity() {
+			return Integer.MAX_VALUE;
+		}
+		
+		@Override
+		public void close() {
+		}
+		
+	}
+	
+}
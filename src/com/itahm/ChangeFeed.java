@@ -0,0 +1,62 @@
+package com.itahm;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * 변경된 node 의 순번(sequence) 기록.
+ * 최근 capacity 개의 변경만 기억하며 그보다 오래된 순번의 요청은 전체 topology 를 다시 받아야 한다.
+ */
+public class ChangeFeed {
+
+	private final long [] sequence;
+	private final String [] id;
+	private long last = 0;
+	
+	public ChangeFeed(int capacity) {
+		this.sequence = new long [capacity];
+		this.id = new String [capacity];
+	}
+	
+	/**
+	 * @param id 바뀐 node
+	 * @return 새 순번
+	 */
+	public synchronized long publish(String id) {
+		int index = (int)(++this.last % this.sequence.length);
+		
+		this.sequence[index] = this.last;
+		this.id[index] = id;
+		
+		return this.last;
+	}
+	
+	public synchronized long getSequence() {
+		return this.last;
+	}
+	
+	/**
+	 * @return since 이후 바뀐 node, 알 수 없으면 null
+	 */
+	public synchronized Set<String> since(long since) {
+		Set<String> changes = new LinkedHashSet<String>();
+		int index;
+		
+		if (since > this.last || this.last - since > this.sequence.length) {
+			return null;
+		}
+		
+		for (long seq = since + 1; seq <= this.last; seq++) {
+			index = (int)(seq % this.sequence.length);
+			
+			if (this.sequence[index] != seq) {
+				return null;
+			}
+			
+			changes.add(this.id[index]);
+		}
+		
+		return changes;
+	}
+	
+}
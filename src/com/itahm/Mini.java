@@ -2,60 +2,208 @@ package com.itahm;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
 import java.net.BindException;
 import java.net.InetAddress;
-import java.net.UnknownHostException;
-import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
-import java.util.Timer;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
 import java.util.TimerTask;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
+import com.itahm.http.ChunkedStream;
+import com.itahm.http.Encoding;
+import com.itahm.http.EventStream;
 import com.itahm.http.Listener;
+import com.itahm.http.Metrics;
 import com.itahm.http.Request;
 import com.itahm.http.Response;
+import com.itahm.probe.EchoProber;
+import com.itahm.probe.ProbeEngine;
+import com.itahm.probe.Prober;
+import com.itahm.probe.Resolver;
+import com.itahm.probe.TCPProber;
+import com.itahm.store.Journal;
+import com.itahm.store.TimeSeries;
 
 import org.json.JSONObject;
 import org.json.JSONException;
+import org.json.JSONTokener;
 
-public class Mini extends Listener {
+public class Mini extends Listener implements ProbeEngine.Handler, Journal.Source, Resolver.Callback {
 
 	private final static int TIMEOUT = 5000;
 	private final static int INTERVAL = 1000;
+	private final static int CONCURRENCY = 256;
+	private final static int MAX_PROBES = 4096;
+	private final static int RAW_DAYS = 7;
+	private final static int SUMMARY_DAYS = 400;
+	private final static int FEED_SIZE = 65536;
+	private final static int WORKERS = 8;
+	private final static int RESOLVERS = 16;
+	private final static long DNS_TTL = 300000;
+	private final static long DNS_NEGATIVE_TTL = 30000;
+	private final static int WORK_QUEUE = 1024;
+	private final static long FLUSH_DELAY = 100;
+	private final static long POLL_TIMEOUT = 30000;
+	private final static long MAX_POLL_TIMEOUT = 60000;
+	// 이보다 작은 응답은 압축하지 않는다.
+	private final static int COMPRESS_MIN = 1024;
+	// history 를 읽는 동안 이만큼 보낼 때마다 client 가 아직 받고 있는지 확인한다.
+	private final static int HISTORY_CHECK = 1024;
 	private final static String FILE_NAME = "itahm.mini.json";
+	private final static String HISTORY_DIR = "itahm.mini.history";
 	
-	private JSONObject json;
-	private final RandomAccessFile file;
-	private final FileChannel channel;
-	private Timer timer;
+	// 읽는 쪽은 잠그지 않고 snapshot 을 얻는다. POST 는 새 snapshot 으로 compareAndSet 한다.
+	private final AtomicReference<Topology> topology = new AtomicReference<Topology>();
+	private volatile Cache cache;
+	// topology 나 echo 가 바뀔 때마다 순번이 증가한다.
+	private final ChangeFeed feed = new ChangeFeed(FEED_SIZE);
+	private final String epoch = Long.toHexString(System.currentTimeMillis());
+	private final Map<Request, Waiter> waiters = new ConcurrentHashMap<Request, Waiter>();
+	private final Map<Request, Stream> streams = new ConcurrentHashMap<Request, Stream>();
+	private final AtomicBoolean flushing = new AtomicBoolean(false);
+	// POST 처리(JSON parsing, journal, DNS)가 다른 연결을 막지 않도록 요청은 worker 에서 처리한다.
+	private final ThreadPoolExecutor workers;
+	// journal, probe 일정은 이 lock 아래에서 applied 를 현재 snapshot 에 맞춘다.
+	private final Object lock = new Object();
+	private Topology applied;
+	private final Journal journal;
+	private final TimeSeries history;
+	private final ProbeEngine engine;
+	private final Resolver resolver;
+	private final Map<String, ProbeEngine.Target> targets = new ConcurrentHashMap<String, ProbeEngine.Target>();
+	private final Metrics.Counter up;
+	private final Metrics.Counter down;
+	private final Metrics.Histogram rtt;
+	private final Metrics.Counter behind;
 	
 	public Mini(int tcp) throws IOException{
-		super(tcp);
-		
-		File saved = new File("."+ File.separator + FILE_NAME);
-		boolean initialized = saved.isFile();
-		
-		file = new RandomAccessFile(saved, "rws");
-		channel = file.getChannel();
+		this(tcp, new EchoProber(CONCURRENCY), Journal.Sync.INTERVAL);
+	}
+	
+	public Mini(int tcp, Prober prober, Journal.Sync sync) throws IOException{
+		this(tcp, prober, sync, Resolver.SYSTEM);
+	}
+	
+	public Mini(int tcp, Prober prober, Journal.Sync sync, Resolver.Lookup lookup) throws IOException{
+		this(tcp, 1, prober, sync, lookup);
+	}
+	
+	/**
+	 * @param reactors 연결을 나누어 맡을 selector thread 의 수
+	 */
+	public Mini(int tcp, int reactors, Prober prober, Journal.Sync sync, Resolver.Lookup lookup) throws IOException{
+		super(new InetSocketAddress(tcp), reactors);
 		
-		try {
-			if (initialized) {
-				ByteBuffer buffer = ByteBuffer.allocate((int)channel.size());
+		workers = new ThreadPoolExecutor(WORKERS, WORKERS, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(WORK_QUEUE), new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "worker");
 				
-				channel.read(buffer);
-				buffer.flip();
+				thread.setDaemon(true);
 				
-				try {
-					json = new JSONObject(StandardCharsets.UTF_8.decode(buffer).toString());
+				return thread;
+			}
+		});
+		
+		setExecutor(workers);
+		
+		engine = new ProbeEngine(this, prober, INTERVAL, TIMEOUT, MAX_PROBES);
+		resolver = new Resolver(lookup, DNS_TTL, DNS_NEGATIVE_TTL, RESOLVERS);
+		
+		Metrics metrics = getMetrics();
+		Metrics.Family<Metrics.Counter> probes = metrics.counter("probe_total", "Completed probes by result.", "result");
+		
+		up = probes.get("up");
+		down = probes.get("down");
+		rtt = metrics.histogram("probe_rtt_seconds", "Round trip time of successful probes.", Metrics.LATENCY).get();
+		behind = metrics.counter("probe_behind_total", "Times a node fell behind its probe schedule.").get();
+		
+		metrics.collect("probe_late_total", "Probe periods that started late or were skipped.", "counter", new Metrics.Collector() {
+
+			@Override
+			public void collect(Metrics.Samples samples) {
+				samples.add(engine.getLateCount());
+			}
+		});
+		
+		metrics.collect("probe_targets", "Scheduled probe targets.", "gauge", new Metrics.Collector() {
+
+			@Override
+			public void collect(Metrics.Samples samples) {
+				samples.add(engine.getTargetSize());
+			}
+		});
+		
+		metrics.collect("probe_lag_seconds", "How late the last probe period of each node started.", "gauge", new Metrics.Collector() {
+
+			@Override
+			public void collect(Metrics.Samples samples) {
+				for (ProbeEngine.Target target : targets.values()) {
+					samples.add(target.getLag() / 1000d, target.getID());
 				}
-				catch (JSONException jsone) {
-					throw new IOException(jsone);
+			}
+		}, "node");
+		
+		try {
+			journal = new Journal(new File("."+ File.separator + FILE_NAME), sync, this);
+			history = new TimeSeries(new File("."+ File.separator + HISTORY_DIR),
+				(int)(TimeUnit.DAYS.toMillis(1) / INTERVAL) + 1, RAW_DAYS, SUMMARY_DAYS);
+		}
+		catch (IOException ioe) {
+			close();
+			
+			throw ioe;
+		}
+		
+		try {
+			String snapshot = journal.readSnapshot();
+			final Map<String, Node> nodes = new HashMap<String, Node>();
+			int count;
+			
+			try {
+				if (snapshot != null) {
+					JSONObject json = new JSONObject(snapshot);
+					
+					for (Object key : json.keySet()) {
+						nodes.put((String)key, Node.parse((String)key, json.getJSONObject((String)key)));
+					}
 				}
+				
+				count = journal.replay(new Journal.Replay() {
+
+					@Override
+					public void onPut(String key, String value) {
+						nodes.put(key, Node.parse(key, new JSONObject(value)));
+					}
+
+					@Override
+					public void onRemove(String key) {
+						nodes.remove(key);
+					}
+				});
 			}
-			else {
-				json = new JSONObject();
+			catch (JSONException jsone) {
+				throw new IOException(jsone);
+			}
+			
+			if (snapshot == null && count == 0) {
+				JSONObject json = new JSONObject();
 				
 				json.put("127.0.0.1",
 					new JSONObject()
@@ -98,6 +246,16 @@ public class Mini extends Listener {
 							.put("ifEntry",
 								new JSONObject()
 									.put("127.0.0.1", "")));
+				
+				for (Object key : json.keySet()) {
+					nodes.put((String)key, Node.parse((String)key, json.getJSONObject((String)key)));
+				}
+			}
+			
+			this.applied = new Topology(nodes);
+			this.topology.set(this.applied);
+			
+			if (snapshot == null && count == 0) {
 				save();
 			}
 			
@@ -111,41 +269,598 @@ public class Mini extends Listener {
 	}
 
 	private void reload() {
-		String target;
+		this.engine.clear();
+		this.targets.clear();
+		
+		for (String id : this.applied.keySet()) {
+			add(id);
+		}
+	}
+	
+	/**
+	 * 이름은 resolver 가 pool 에서 찾으며 찾은 뒤(onResolve) probe 를 시작한다.
+	 */
+	private void add(String id) {
+		this.resolver.resolve(id, this);
+	}
+	
+	private void remove(String id) {
+		ProbeEngine.Target target = this.targets.remove(id);
 		
-		this.timer = new Timer(true);
+		this.resolver.cancel(id);
 		
-		for (Object key : this.json.keySet()) {
-			target = (String)key;
+		if (target != null) {
+			this.engine.remove(target);
+		}
+		
+		// 기록은 남기고 열려 있는 segment 만 닫는다.
+		this.history.remove(id);
+	}
+	
+	/**
+	 * 마지막으로 반영한 snapshot 과 현재 snapshot 을 비교하여 바뀐 node 만 journal 에 기록하고 probe 일정을 고친다.
+	 * 바뀌지 않은 node 는 같은 객체이므로 probe 상태와 주기를 유지한다.
+	 * 여러 POST 가 겹쳐도 언제나 가장 최근의 snapshot 에 맞추므로 순서가 뒤섞이지 않는다.
+	 */
+	private void reconcile() {
+		synchronized(this.lock) {
+			Topology applied = this.applied;
+			Topology current = this.topology.get();
+			ProbeEngine.Target target;
+			Node node, old;
+			
+			if (applied == current) {
+				return;
+			}
+			
+			for (String id : applied.keySet()) {
+				if (!current.has(id)) {
+					this.journal.remove(id);
+				}
+			}
+			
+			for (String id : current.keySet()) {
+				node = current.get(id);
+				
+				if (applied.get(id) != node) {
+					this.journal.put(id, node.toString());
+				}
+			}
 			
 			try {
-				this.timer.schedule(new Schedule(InetAddress.getByName(target), this.json.getJSONObject(target)), INTERVAL);
-			} catch (UnknownHostException e) {
-				e.printStackTrace();
+				this.journal.commit();
+			} catch (IOException ioe) {
+				ioe.printStackTrace();
+			}
+			
+			this.applied = current;
+			
+			for (String id : applied.keySet()) {
+				if (!current.has(id)) {
+					remove(id);
+					
+					this.feed.publish(id);
+				}
+			}
+			
+			for (String id : current.keySet()) {
+				node = current.get(id);
+				old = applied.get(id);
+				
+				if (old == node) {
+					continue;
+				}
+				
+				if (old == null) {
+					add(id);
+				}
+				else {
+					target = this.targets.get(id);
+					
+					if (target != null) {
+						target.attach(node);
+					}
+				}
+				
+				this.feed.publish(id);
+			}
+		}
+		
+		scheduleFlush();
+	}
+	
+	@Override
+	public void onResolve(String id, InetAddress address) {
+		synchronized(this.lock) {
+			Node node = this.applied.get(id);
+			ProbeEngine.Target target;
+			
+			if (node == null) {
+				return;
+			}
+			
+			target = this.targets.get(id);
+			
+			if (target != null) {
+				if (target.getAddress().equals(address)) {
+					return;
+				}
+				
+				this.targets.remove(id);
+				this.engine.remove(target);
+			}
+			
+			if (address != null) {
+				this.targets.put(id, this.engine.add(id, address, node));
+			}
+			else {
+				// 다시 찾을 수 있을 때까지 응답이 없는 것으로 본다.
+				if (node.setEcho(false)) {
+					this.feed.publish(id);
+					
+					scheduleFlush();
+				}
 			}
 		}
 	}
 	
+	@Override
+	public void onProbe(ProbeEngine.Target target, boolean reachable, long rtt) {
+		// 진행중에 삭제되었거나 주소가 바뀌어 대체된 target 의 결과는 버린다.
+		if (this.targets.get(target.getID()) != target) {
+			return;
+		}
+		
+		if (reachable) {
+			this.up.inc();
+			this.rtt.observe(rtt / 1000d);
+		}
+		else {
+			this.down.inc();
+		}
+		
+		if (((Node)target.attachment()).setEcho(reachable)) {
+			this.feed.publish(target.getID());
+			
+			scheduleFlush();
+		}
+		
+		this.history.record(target.getID(), System.currentTimeMillis(), reachable, rtt);
+	}
+	
+	@Override
+	public void onLate(ProbeEngine.Target target, long lag) {
+		// node 별 지연은 probe_lag_seconds 로 볼 수 있다.
+		this.behind.inc();
+	}
+	
 	private void save() {
+		for (Node node : this.applied.nodes()) {
+			this.journal.put(node.getID(), node.toString());
+		}
+		
 		try {
-			this.file.setLength(0);
-			
-			this.channel.write(ByteBuffer.wrap(this.json.toString().getBytes(StandardCharsets.UTF_8.name())));
+			this.journal.commit();
 		} catch (IOException ioe) {
 			ioe.printStackTrace();
 		}
 	}
 	
+	@Override
+	public String snapshot() {
+		// 이미 commit 한 변경은 모두 현재 snapshot 에 있다.
+		return this.topology.get().toString();
+	}
+	
 	private void sendResponse(Request request, Response response) {
+		try {
+			request.sendResponse(allowOrigin(response));
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	private static Response allowOrigin(Response response) {
 		//response.setResponseHeader("Access-Control-Allow-Headers", "Authorization, Content-Type");
 		response.setResponseHeader("Access-Control-Allow-Origin", "http://itahm.com");
 		response.setResponseHeader("Access-Control-Allow-Credentials", "true");
 		
+		return response;
+	}
+	
+	private Response getTopology(Request request) {
+		Cache cache = this.cache;
+		long version = this.feed.getSequence();
+		
+		if (cache == null || cache.version != version) {
+			// 직렬화 도중 version 이 바뀌면 다음 요청에서 다시 만든다.
+			cache = new Cache(version, cursor(version), this.topology.get().toString().getBytes(StandardCharsets.UTF_8));
+			
+			this.cache = cache;
+		}
+		
+		if (cache.matches(request.getRequestHeader("If-None-Match"))) {
+			return Response.getInstance(Response.Status.NOTMODIFIED)
+				.setResponseHeader("ETag", cache.etag);
+		}
+		
+		Encoding encoding = cache.body.length < COMPRESS_MIN? Encoding.IDENTITY: Encoding.negotiate(request.getRequestHeader("Accept-Encoding"));
+		byte [] body;
+		
 		try {
-			request.sendResponse(response);
-		} catch (IOException e) {
-			e.printStackTrace();
+			body = cache.getBody(encoding);
+		} catch (IOException ioe) {
+			ioe.printStackTrace();
+			
+			encoding = Encoding.IDENTITY;
+			body = cache.body;
+		}
+		
+		// ETag 은 client 가 변경 feed 의 위치로 쓰므로 encoding 과 상관없이 같다. 그래서 byte 가 달라도 되는 weak validator 다.
+		Response response = Response.getInstance(Response.Status.OK, body)
+			.setResponseHeader("Content-Type", "application/json")
+			.setResponseHeader("Cache-Control", "no-cache")
+			.setResponseHeader("Vary", "Accept-Encoding")
+			.setResponseHeader("ETag", cache.etag);
+		
+		if (encoding != Encoding.IDENTITY) {
+			response.setResponseHeader("Content-Encoding", encoding.getName());
 		}
+		
+		return response;
+	}
+	
+	/**
+	 * 변경 feed 의 위치. 재시작 이전의 순번과 섞이지 않도록 epoch 를 붙인다.
+	 */
+	private String cursor(long sequence) {
+		return this.epoch +"-"+ sequence;
+	}
+	
+	private long parseCursor(String cursor) {
+		if (cursor != null) {
+			cursor = cursor.trim();
+			
+			// ETag 을 그대로 넘겨도 된다.
+			if (cursor.startsWith("W/")) {
+				cursor = cursor.substring(2);
+			}
+			
+			cursor = cursor.replace("\"", "");
+			
+			if (cursor.startsWith(this.epoch +"-")) {
+				try {
+					return Long.parseLong(cursor.substring(this.epoch.length() + 1));
+				} catch (NumberFormatException nfe) {
+				}
+			}
+		}
+		
+		return -1;
+	}
+	
+	/**
+	 * since 이후 바뀐 node 들. {"seq": cursor, "nodes": {id: node 또는 null}}
+	 * 알 수 없는 위치이면 {"seq": cursor, "reset": true} 이고 client 는 전체를 다시 받아야 한다.
+	 */
+	private String getChanges(long since, long sequence) {
+		StringBuilder sb = new StringBuilder();
+		Set<String> changes = since < 0? null: this.feed.since(since);
+		Topology topology = this.topology.get();
+		boolean first = true;
+		Node node;
+		
+		sb.append("{\"seq\":");
+		Node.quote(sb, cursor(sequence));
+		
+		if (changes == null) {
+			return sb.append(",\"reset\":true}").toString();
+		}
+		
+		sb.append(",\"nodes\":{");
+		
+		for (String id : changes) {
+			if (first) {
+				first = false;
+			}
+			else {
+				sb.append(',');
+			}
+			
+			Node.quote(sb, id);
+			sb.append(':');
+			
+			node = topology.get(id);
+			
+			if (node == null) {
+				sb.append("null");
+			}
+			else {
+				node.write(sb);
+			}
+		}
+		
+		return sb.append("}}").toString();
+	}
+	
+	/**
+	 * /changes?since=cursor[&timeout=ms]
+	 * since 이후의 변경이 없으면 변경이 생기거나 timeout 이 지날 때까지 응답을 미룬다(long polling).
+	 * Accept: text/event-stream 이면 연결을 유지하며 변경을 event 로 보낸다. Last-Event-ID 로 이어받을 수 있다.
+	 */
+	private void getChanges(final Request request) {
+		Map<String, String> query = parseQuery(request.getRequestURI());
+		String accept = request.getRequestHeader("Accept");
+		long sequence = this.feed.getSequence();
+		long since;
+		long timeout;
+		
+		if (accept != null && accept.contains("text/event-stream")) {
+			String last = request.getRequestHeader("Last-Event-ID");
+			
+			since = parseCursor(last != null? last: query.get("since"));
+			
+			try {
+				EventStream stream = EventStream.open(request, allowOrigin(Response.getInstance(Response.Status.OK)));
+				
+				if (stream != null) {
+					this.streams.put(request, new Stream(stream, since));
+					
+					scheduleFlush();
+				}
+			} catch (IOException ioe) {
+				closeRequest(request);
+			}
+			
+			return;
+		}
+		
+		since = parseCursor(query.get("since"));
+		
+		if (since < 0 || since != sequence) {
+			sendChanges(request, since, sequence);
+			
+			return;
+		}
+		
+		try {
+			timeout = query.containsKey("timeout")? Math.min(MAX_POLL_TIMEOUT, Long.parseLong(query.get("timeout"))): POLL_TIMEOUT;
+		} catch (NumberFormatException nfe) {
+			timeout = POLL_TIMEOUT;
+		}
+		
+		final Waiter waiter = new Waiter(since);
+		
+		waiter.task = new TimerTask() {
+
+			@Override
+			public void run() {
+				if (waiters.remove(request, waiter)) {
+					sendChanges(request, waiter.since, feed.getSequence());
+				}
+			}
+		};
+		
+		this.waiters.put(request, waiter);
+		
+		schedule(waiter.task, Math.max(0, timeout));
+		
+		// 등록 직전에 생긴 변경을 놓치지 않도록 다시 확인한다.
+		if (this.feed.getSequence() != since) {
+			scheduleFlush();
+		}
+	}
+	
+	private void sendChanges(Request request, long since, long sequence) {
+		sendResponse(request, Response.getInstance(Response.Status.OK, getChanges(since, sequence).getBytes(StandardCharsets.UTF_8))
+			.setResponseHeader("Content-Type", "application/json")
+			.setResponseHeader("Cache-Control", "no-cache"));
+	}
+	
+	/**
+	 * 짧은 시간 동안의 변경을 모아 대기중인 long polling 요청과 event stream 에 보낸다.
+	 */
+	private void scheduleFlush() {
+		if (this.flushing.compareAndSet(false, true)) {
+			schedule(new TimerTask() {
+
+				@Override
+				public void run() {
+					flushing.set(false);
+					
+					flush();
+				}
+			}, FLUSH_DELAY);
+		}
+	}
+	
+	private void flush() {
+		long sequence = this.feed.getSequence();
+		Waiter waiter;
+		Stream stream;
+		
+		for (Map.Entry<Request, Waiter> entry : this.waiters.entrySet()) {
+			waiter = entry.getValue();
+			
+			if (waiter.since != sequence && this.waiters.remove(entry.getKey(), waiter)) {
+				waiter.task.cancel();
+				
+				sendChanges(entry.getKey(), waiter.since, sequence);
+			}
+		}
+		
+		for (Map.Entry<Request, Stream> entry : this.streams.entrySet()) {
+			stream = entry.getValue();
+			
+			if (stream.last == sequence) {
+				continue;
+			}
+			
+			try {
+				if (!stream.stream.send(cursor(sequence), getChanges(stream.last, sequence))) {
+					this.streams.remove(entry.getKey());
+				}
+			} catch (IOException ioe) {
+				this.streams.remove(entry.getKey());
+				
+				closeRequest(entry.getKey());
+			}
+			
+			stream.last = sequence;
+		}
+	}
+	
+	/**
+	 * /history?id=node[&from=ms][&to=ms][&step=ms]
+	 * step 이 있으면 step 단위 요약 [time, count, up, rtt avg, rtt min, rtt max],
+	 * 없으면 raw [time, rtt] (응답이 없었으면 rtt 는 -1).
+	 * 기간이 길면 양이 많으므로 읽는 대로 chunked 로 보낸다.
+	 * 기간은 보관 기간(step 이 있으면 SUMMARY_DAYS, 없으면 RAW_DAYS) 안으로, to 는 현재로 줄인다.
+	 */
+	private void getHistory(Request request) {
+		Map<String, String> query = parseQuery(request.getRequestURI());
+		String id = query.get("id");
+		final ChunkedStream stream;
+		final PrintWriter writer;
+		long now = System.currentTimeMillis();
+		long to, from, step;
+		
+		if (id == null) {
+			sendResponse(request, Response.getInstance(Response.Status.BADREQUEST));
+			
+			return;
+		}
+		
+		try {
+			to = query.containsKey("to")? Long.parseLong(query.get("to")): now;
+			from = query.containsKey("from")? Long.parseLong(query.get("from")): to - TimeUnit.DAYS.toMillis(1);
+			step = query.containsKey("step")? Long.parseLong(query.get("step")): 0;
+		} catch (NumberFormatException nfe) {
+			sendResponse(request, Response.getInstance(Response.Status.BADREQUEST));
+			
+			return;
+		}
+		
+		// 보관 기간 밖은 이미 지워졌으므로 읽지 않는다. 날짜는 TimeSeries 와 같이 UTC 로 센다.
+		to = Math.min(to, now);
+		from = Math.max(from, now - now % TimeUnit.DAYS.toMillis(1) - TimeUnit.DAYS.toMillis(step > 0? SUMMARY_DAYS: RAW_DAYS));
+		
+		if (to <= from) {
+			sendResponse(request, Response.getInstance(Response.Status.BADREQUEST));
+			
+			return;
+		}
+		
+		try {
+			stream = ChunkedStream.open(request, allowOrigin(Response.getInstance(Response.Status.OK)
+				.setResponseHeader("Content-Type", "application/json")));
+		} catch (IOException ioe) {
+			ioe.printStackTrace();
+			
+			return;
+		}
+		
+		if (stream == null) {
+			return;
+		}
+		
+		// 연결이 끊겨 쓰지 못하면 checkError 로 알 수 있다. checkError 는 flush 하므로 HISTORY_CHECK 마다 확인한다.
+		writer = new PrintWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8));
+		
+		writer.write('[');
+		
+		try {
+			if (step > 0) {
+				this.history.summarize(id, from, to, step, new TimeSeries.SummaryReader() {
+					private boolean first = true;
+					private int written = 0;
+					
+					@Override
+					public boolean onSummary(long time, int count, int up, long rttSum, int rttMin, int rttMax) {
+						writer.print(this.first? "[": ",[");
+						writer.print(time);
+						writer.print(',');
+						writer.print(count);
+						writer.print(',');
+						writer.print(up);
+						writer.print(',');
+						writer.print(up > 0? rttSum / up: -1);
+						writer.print(',');
+						writer.print(up > 0? rttMin: -1);
+						writer.print(',');
+						writer.print(rttMax);
+						writer.print(']');
+						
+						this.first = false;
+						
+						return ++this.written % HISTORY_CHECK != 0 || !writer.checkError();
+					}
+				});
+			}
+			else {
+				this.history.read(id, from, to, new TimeSeries.Reader() {
+					private boolean first = true;
+					private int written = 0;
+					
+					@Override
+					public boolean onRecord(long time, boolean reachable, int rtt) {
+						writer.print(this.first? "[": ",[");
+						writer.print(time);
+						writer.print(',');
+						writer.print(reachable? rtt: -1);
+						writer.print(']');
+						
+						this.first = false;
+						
+						return ++this.written % HISTORY_CHECK != 0 || !writer.checkError();
+					}
+				});
+			}
+		} catch (IOException ioe) {
+			ioe.printStackTrace();
+			
+			// 이미 200 을 보냈으므로 끝을 보내지 않고 끊어서 잘린 응답임을 알린다.
+			stream.abort();
+			
+			return;
+		}
+		
+		// client 가 떠났으면 남은 것을 보내려 하지 않는다.
+		if (writer.checkError()) {
+			stream.abort();
+			
+			return;
+		}
+		
+		writer.write(']');
+		writer.close();
+	}
+	
+	private static Map<String, String> parseQuery(String uri) {
+		Map<String, String> query = new HashMap<String, String>();
+		int index = uri.indexOf('?');
+		int eq;
+		
+		if (index == -1) {
+			return query;
+		}
+		
+		for (String pair : uri.substring(index + 1).split("&")) {
+			eq = pair.indexOf('=');
+			
+			try {
+				if (eq == -1) {
+					query.put(URLDecoder.decode(pair, StandardCharsets.UTF_8.name()), "");
+				}
+				else {
+					query.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8.name()),
+						URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8.name()));
+				}
+			} catch (UnsupportedEncodingException | IllegalArgumentException e) {
+			}
+		}
+		
+		return query;
 	}
 	
 	@Override
@@ -154,23 +869,35 @@ public class Mini extends Listener {
 		
 		switch(request.getRequestMethod()) {
 		case "GET":
-			response = Response.getInstance(Response.Status.OK, this.json.toString()).setResponseHeader("Content-Type", "application/json");
+			if (request.getRequestURI().startsWith("/history")) {
+				getHistory(request);
+				
+				return;
+			}
+			else if (request.getRequestURI().startsWith("/changes")) {
+				// 응답은 변경이 생기거나 시간이 지난 뒤에 보낸다.
+				getChanges(request);
+				
+				return;
+			}
+			else {
+				response = getTopology(request);
+			}
 			
 			break;
 		case "POST":
 			try {
-				this.timer.cancel();
+				Map<String, Node> nodes = Topology.parse(new JSONTokener(new InputStreamReader(request.getRequestBodyStream(), StandardCharsets.UTF_8)));
+				Topology current;
 				
-				synchronized(this.json) {
-					this.json = new JSONObject(new String(request.getRequestBody(), StandardCharsets.UTF_8.name()));
+				do {
+					current = this.topology.get();
+				} while (!this.topology.compareAndSet(current, current.replace(nodes)));
 				
-					reload();
-					
-					save();
-				}				
+				reconcile();
 				
 				response = Response.getInstance(Response.Status.OK);
-			} catch (UnsupportedEncodingException | JSONException e) {
+			} catch (IOException | JSONException e) {
 				response = Response.getInstance(Response.Status.BADREQUEST);
 			}
 			
@@ -182,22 +909,47 @@ public class Mini extends Listener {
 		sendResponse(request, response);
 	}
 	
+	@Override
+	protected void onClose(Request request) {
+		Waiter waiter = this.waiters.remove(request);
+		
+		if (waiter != null) {
+			waiter.task.cancel();
+		}
+		
+		this.streams.remove(request);
+	}
+	
 	@Override
 	public void close() {
-		this.timer.cancel();
+		if (this.workers != null) {
+			this.workers.shutdown();
+		}
 		
 		try {
-			this.channel.close();
+			this.engine.close();
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
 		
 		try {
-			this.file.close();
+			this.resolver.close();
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
 		
+		if (this.journal != null) {
+			try {
+				this.journal.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		
+		if (this.history != null) {
+			this.history.close();
+		}
+		
 		try {
 			super.close();
 		} catch (IOException e) {
@@ -207,6 +959,9 @@ public class Mini extends Listener {
 	
 	public static void main(String [] args) {
 		int tcp = 2015;
+		int probe = 0;
+		int reactors = 1;
+		Journal.Sync sync = Journal.Sync.INTERVAL;
 		
 		if (args.length > 0) {
 			try {
@@ -215,8 +970,32 @@ public class Mini extends Listener {
 			}
 		}
 		
+		// 두번째 인자로 port 를 주면 ICMP 대신 해당 port 로 TCP probe 한다.
+		if (args.length > 1) {
+			try {
+				probe = Integer.parseInt(args[1]);
+			} catch (NumberFormatException nfe) {
+			}
+		}
+		
+		// 세번째 인자는 fsync 정책 (always, interval, never).
+		if (args.length > 2) {
+			try {
+				sync = Journal.Sync.valueOf(args[2].toUpperCase());
+			} catch (IllegalArgumentException iae) {
+			}
+		}
+		
+		// 네번째 인자는 연결을 나누어 맡을 selector thread 의 수.
+		if (args.length > 3) {
+			try {
+				reactors = Integer.parseInt(args[3]);
+			} catch (NumberFormatException nfe) {
+			}
+		}
+		
 		try {
-			final Mini mini = new Mini(tcp);
+			final Mini mini = new Mini(tcp, reactors, probe > 0? new TCPProber(probe): new EchoProber(CONCURRENCY), sync, Resolver.SYSTEM);
 			
 			Runtime.getRuntime().addShutdownHook(new Thread() {
 				public void run() {
@@ -231,25 +1010,79 @@ public class Mini extends Listener {
 		}
 	}
 	
-	class Schedule extends TimerTask {
-
-		private final JSONObject data;
-		private final InetAddress target;
+	static class Cache {
 		
-		public Schedule(InetAddress target, JSONObject data) {
-			this.data = data;
-			this.target = target;
+		private final long version;
+		// W/"cursor"
+		private final String etag;
+		private final byte [] body;
+		private final Map<Encoding, byte []> encoded = new EnumMap<Encoding, byte []>(Encoding.class);
+		
+		public Cache(long version, String cursor, byte [] body) {
+			this.version = version;
+			this.etag = "W/\""+ cursor +"\"";
+			this.body = body;
 		}
 		
-		@Override
-		public void run() {
-			try {
-				this.data.put("echo", this.target.isReachable(TIMEOUT));
+		/**
+		 * version 마다 encoding 별로 한 번만 압축한다. 동시에 요청한 client 들은 먼저 시작한 압축을 기다린다.
+		 */
+		public byte [] getBody(Encoding encoding) throws IOException {
+			if (encoding == Encoding.IDENTITY) {
+				return this.body;
+			}
+			
+			synchronized(this.encoded) {
+				byte [] body = this.encoded.get(encoding);
 				
-				timer.schedule(new Schedule(this.target, this.data), INTERVAL);
-			} catch (IOException e) {
-				e.printStackTrace();
+				if (body == null) {
+					body = encoding.encode(this.body);
+					
+					this.encoded.put(encoding, body);
+				}
+				
+				return body;
+			}
+		}
+		
+		public boolean matches(String ifNoneMatch) {
+			if (ifNoneMatch == null) {
+				return false;
 			}
+			
+			for (String tag : ifNoneMatch.split(",")) {
+				tag = tag.trim();
+				
+				// If-None-Match 는 weak 비교이므로 W/ 가 없는 것도 같다.
+				if (tag.equals("*") || tag.equals(this.etag) || tag.equals(this.etag.substring(2))) {
+					return true;
+				}
+			}
+			
+			return false;
+		}
+		
+	}
+	
+	static class Waiter {
+		
+		private final long since;
+		private TimerTask task;
+		
+		public Waiter(long since) {
+			this.since = since;
+		}
+		
+	}
+	
+	static class Stream {
+		
+		private final EventStream stream;
+		private volatile long last;
+		
+		public Stream(EventStream stream, long last) {
+			this.stream = stream;
+			this.last = last;
 		}
 		
 	}
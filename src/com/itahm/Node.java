@@ -0,0 +1,260 @@
+package com.itahm;
+
+import java.util.Arrays;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * topology 의 node. echo 외의 값은 바뀌지 않으므로 probe thread 와 직렬화가 동시에 일어나도 안전하다.
+ * ifEntry 와 그 밖의 field 는 key 순으로 정렬한 배열로 갖고 값은 JSON 문자열 그대로 둔다.
+ */
+class Node {
+
+	private final static int UNKNOWN = -1;
+	private final static String [] EMPTY = new String [0];
+	
+	private final String id;
+	private final String address;
+	private final double x;
+	private final double y;
+	// ifEntry 의 상대 node id 와 값. 순서와 상관없이 isSame 으로 비교할 수 있도록 정렬해 둔다.
+	private final String [] links;
+	private final String [] labels;
+	// 알지 못하는 field 의 이름과 값
+	private final String [] keys;
+	private final String [] values;
+	private volatile int echo = UNKNOWN;
+	
+	private Node(String id, String address, double x, double y, String [] links, String [] labels, String [] keys, String [] values) {
+		this.id = id;
+		this.address = address;
+		this.x = x;
+		this.y = y;
+		this.links = links;
+		this.labels = labels;
+		this.keys = keys;
+		this.values = values;
+	}
+	
+	public static Node parse(String id, JSONObject json) throws JSONException {
+		JSONObject ifEntry = null;
+		String address = null;
+		String [] links = EMPTY, labels = EMPTY, keys, values;
+		double x = 0, y = 0;
+		int count = 0;
+		Node node;
+		
+		if (json.has("address") && !json.isNull("address")) {
+			address = json.getString("address");
+		}
+		
+		if (json.has("x")) {
+			x = json.getDouble("x");
+		}
+		
+		if (json.has("y")) {
+			y = json.getDouble("y");
+		}
+		
+		if (json.has("ifEntry") && !json.isNull("ifEntry")) {
+			ifEntry = json.getJSONObject("ifEntry");
+			
+			links = sort(ifEntry);
+			labels = new String [links.length];
+			
+			for (int i=0; i<links.length; i++) {
+				labels[i] = JSONObject.valueToString(ifEntry.get(links[i]));
+			}
+		}
+		
+		keys = sort(json);
+		
+		for (String key : keys) {
+			if (!isKnown(key)) {
+				keys[count++] = key;
+			}
+		}
+		
+		keys = Arrays.copyOf(keys, count);
+		values = new String [count];
+		
+		for (int i=0; i<count; i++) {
+			values[i] = JSONObject.valueToString(json.get(keys[i]));
+		}
+		
+		node = new Node(id, address, x, y, links, labels, keys, values);
+		
+		if (json.opt("echo") instanceof Boolean) {
+			node.echo = (Boolean)json.opt("echo")? 1: 0;
+		}
+		
+		return node;
+	}
+	
+	private static String [] sort(JSONObject json) {
+		String [] keys = new String [json.length()];
+		int i = 0;
+		
+		for (Object key : json.keySet()) {
+			keys[i++] = (String)key;
+		}
+		
+		Arrays.sort(keys);
+		
+		return keys;
+	}
+	
+	private static boolean isKnown(String key) {
+		switch (key) {
+		case "address":
+		case "echo":
+		case "x":
+		case "y":
+		case "ifEntry":
+			return true;
+		}
+		
+		return false;
+	}
+	
+	public String getID() {
+		return this.id;
+	}
+	
+	/**
+	 * @return 바뀌었으면 true
+	 */
+	public boolean setEcho(boolean echo) {
+		int value = echo? 1: 0;
+		
+		if (this.echo == value) {
+			return false;
+		}
+		
+		this.echo = value;
+		
+		return true;
+	}
+	
+	/**
+	 * 고쳐서 올라온 node 가 이전 node 의 probe 결과를 이어받는다.
+	 */
+	public void copyEcho(Node node) {
+		this.echo = node.echo;
+	}
+	
+	/**
+	 * server 가 관리하는 echo 를 빼고 비교한다.
+	 */
+	public boolean isSame(Node node) {
+		return this.id.equals(node.id)
+			&& (this.address == null? node.address == null: this.address.equals(node.address))
+			&& Double.compare(this.x, node.x) == 0
+			&& Double.compare(this.y, node.y) == 0
+			&& Arrays.equals(this.links, node.links)
+			&& Arrays.equals(this.labels, node.labels)
+			&& Arrays.equals(this.keys, node.keys)
+			&& Arrays.equals(this.values, node.values);
+	}
+	
+	public void write(StringBuilder sb) {
+		int echo = this.echo;
+		
+		sb.append("{\"address\":");
+		
+		if (this.address == null) {
+			sb.append("null");
+		}
+		else {
+			quote(sb, this.address);
+		}
+		
+		sb.append(",\"echo\":").append(echo == UNKNOWN? "null": echo == 1? "true": "false");
+		
+		sb.append(",\"x\":");
+		number(sb, this.x);
+		
+		sb.append(",\"y\":");
+		number(sb, this.y);
+		
+		sb.append(",\"ifEntry\":{");
+		
+		for (int i=0; i<this.links.length; i++) {
+			if (i > 0) {
+				sb.append(',');
+			}
+			
+			quote(sb, this.links[i]);
+			sb.append(':').append(this.labels[i]);
+		}
+		
+		sb.append('}');
+		
+		for (int i=0; i<this.keys.length; i++) {
+			sb.append(',');
+			quote(sb, this.keys[i]);
+			sb.append(':').append(this.values[i]);
+		}
+		
+		sb.append('}');
+	}
+	
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder(128);
+		
+		write(sb);
+		
+		return sb.toString();
+	}
+	
+	private static void number(StringBuilder sb, double value) {
+		if (value == (long)value) {
+			sb.append((long)value);
+		}
+		else {
+			sb.append(value);
+		}
+	}
+	
+	static void quote(StringBuilder sb, String s) {
+		char c;
+		
+		sb.append('"');
+		
+		for (int i=0, _i=s.length(); i<_i; i++) {
+			c = s.charAt(i);
+			
+			switch (c) {
+			case '"':
+			case '\\':
+				sb.append('\\').append(c);
+				
+				break;
+			case '\n':
+				sb.append("\\n");
+				
+				break;
+			case '\r':
+				sb.append("\\r");
+				
+				break;
+			case '\t':
+				sb.append("\\t");
+				
+				break;
+			default:
+				if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+					sb.append(String.format("\\u%04x", (int)c));
+				}
+				else {
+					sb.append(c);
+				}
+			}
+		}
+		
+		sb.append('"');
+	}
+	
+}
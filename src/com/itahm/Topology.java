@@ -0,0 +1,158 @@
+package com.itahm;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+/**
+ * 바뀌지 않는 topology 의 snapshot. 고칠 때에는 새 snapshot 을 만들어 통째로 바꾸므로 읽는 쪽은 잠그지 않는다.
+ * node 의 echo 만은 snapshot 과 상관없이 probe thread 가 바꾼다.
+ */
+class Topology {
+
+	private final Map<String, Node> nodes;
+	
+	/**
+	 * nodes 는 이후에 고치지 않아야 한다.
+	 */
+	public Topology(Map<String, Node> nodes) {
+		this.nodes = Collections.unmodifiableMap(nodes);
+	}
+	
+	/**
+	 * 올라온 topology 를 node 단위로 읽으며 검사한다. 문서 전체를 문자열이나 JSONObject 로 만들지 않는다.
+	 */
+	public static Map<String, Node> parse(JSONTokener tokener) throws JSONException {
+		Map<String, Node> nodes = new HashMap<String, Node>();
+		Object value;
+		String id;
+		char c;
+		
+		if (tokener.nextClean() != '{') {
+			throw tokener.syntaxError("A JSONObject text must begin with '{'");
+		}
+		
+		c = tokener.nextClean();
+		
+		while (c != '}') {
+			if (c == 0) {
+				throw tokener.syntaxError("A JSONObject text must end with '}'");
+			}
+			
+			tokener.back();
+			
+			id = tokener.nextValue().toString();
+			
+			if (tokener.nextClean() != ':') {
+				throw tokener.syntaxError("Expected a ':' after a key");
+			}
+			
+			value = tokener.nextValue();
+			
+			if (!(value instanceof JSONObject)) {
+				throw tokener.syntaxError(String.format("Node %s must be an object", id));
+			}
+			
+			if (nodes.containsKey(id)) {
+				throw tokener.syntaxError(String.format("Duplicate node %s", id));
+			}
+			
+			nodes.put(id, Node.parse(id, (JSONObject)value));
+			
+			c = tokener.nextClean();
+			
+			if (c == ',') {
+				c = tokener.nextClean();
+			}
+			else if (c != '}') {
+				throw tokener.syntaxError("Expected a ',' or '}'");
+			}
+		}
+		
+		return nodes;
+	}
+	
+	/**
+	 * nodes 로 이루어진 새 snapshot. 바뀌지 않은 node 는 이 snapshot 의 것을 그대로 쓰고
+	 * 바뀐 node 는 probe 결과(echo)를 이어받는다.
+	 */
+	public Topology replace(Map<String, Node> nodes) {
+		Map<String, Node> next = new HashMap<String, Node>(nodes.size() * 4 / 3 + 1);
+		Node old;
+		
+		for (Node node : nodes.values()) {
+			old = this.nodes.get(node.getID());
+			
+			if (old == null) {
+				next.put(node.getID(), node);
+			}
+			else if (old.isSame(node)) {
+				next.put(node.getID(), old);
+			}
+			else {
+				node.copyEcho(old);
+				
+				next.put(node.getID(), node);
+			}
+		}
+		
+		return new Topology(next);
+	}
+	
+	public Node get(String id) {
+		return this.nodes.get(id);
+	}
+	
+	public boolean has(String id) {
+		return this.nodes.containsKey(id);
+	}
+	
+	public Set<String> keySet() {
+		return this.nodes.keySet();
+	}
+	
+	public Collection<Node> nodes() {
+		return this.nodes.values();
+	}
+	
+	public int size() {
+		return this.nodes.size();
+	}
+	
+	public void write(StringBuilder sb) {
+		boolean first = true;
+		
+		sb.append('{');
+		
+		for (Node node : this.nodes.values()) {
+			if (first) {
+				first = false;
+			}
+			else {
+				sb.append(',');
+			}
+			
+			Node.quote(sb, node.getID());
+			sb.append(':');
+			node.write(sb);
+		}
+		
+		sb.append('}');
+	}
+	
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder(this.nodes.size() * 128 + 2);
+		
+		write(sb);
+		
+		return sb.toString();
+	}
+	
+}
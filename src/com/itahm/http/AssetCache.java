@@ -0,0 +1,282 @@
+package com.itahm.http;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+/**
+ * 정적 file 의 응답을 미리 압축한 gzip, deflate 와 함께 기억해 두는 LRU cache.
+ * 전체 크기는 capacity 를 넘지 않으며 maxEntry 보다 큰 file 과 Range 요청은 cache 를 거치지 않고 file 에서 보낸다.
+ * file 이 바뀌었는지는 CHECK_INTERVAL 마다 수정 시각과 크기로 확인한다.
+ */
+public class AssetCache {
+	
+	private final static long CHECK_INTERVAL = 1000;
+	private final static DateTimeFormatter HTTP_DATE = DateTimeFormatter.RFC_1123_DATE_TIME.withZone(ZoneOffset.UTC);
+	
+	private final long capacity;
+	private final long maxEntry;
+	// 접근 순서. 가장 오래 쓰지 않은 것부터 버린다.
+	private final Map<String, Asset> assets = new LinkedHashMap<String, Asset>(16, .75f, true);
+	private long size = 0;
+	
+	public AssetCache(long capacity, long maxEntry) {
+		this.capacity = capacity;
+		this.maxEntry = maxEntry;
+	}
+	
+	/**
+	 * request 에 맞는 file 의 응답. 조건부 요청이면 304, file 이 없으면 null.
+	 */
+	public Response getResponse(Request request, File file) {
+		String key = file.getPath();
+		long now = System.currentTimeMillis();
+		Asset asset;
+		
+		synchronized(this) {
+			asset = this.assets.get(key);
+		}
+		
+		if (asset == null || now - asset.checked > CHECK_INTERVAL) {
+			BasicFileAttributes attributes;
+			
+			try {
+				attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+			} catch (IOException ioe) {
+				remove(key);
+				
+				return null;
+			}
+			
+			if (!attributes.isRegularFile()) {
+				remove(key);
+				
+				return null;
+			}
+			
+			long modified = attributes.lastModifiedTime().toMillis();
+			long length = attributes.size();
+			
+			if (asset != null && asset.modified == modified && asset.length == length) {
+				asset.checked = now;
+			}
+			else if (length > this.maxEntry) {
+				remove(key);
+				
+				return getFileResponse(request, file, modified, length);
+			}
+			else {
+				try {
+					asset = new Asset(file, modified, now);
+				} catch (IOException ioe) {
+					remove(key);
+					
+					return null;
+				}
+				
+				put(key, asset);
+			}
+		}
+		
+		if (request.getRequestHeader("Range") != null) {
+			return getFileResponse(request, file, asset.modified, asset.length);
+		}
+		
+		return asset.getResponse(request);
+	}
+	
+	public synchronized long getSize() {
+		return this.size;
+	}
+	
+	private synchronized void put(String key, Asset asset) {
+		Asset old = this.assets.remove(key);
+		Iterator<Asset> iterator;
+		
+		if (old != null) {
+			this.size -= old.weight;
+		}
+		
+		if (asset.weight > this.capacity) {
+			return;
+		}
+		
+		this.assets.put(key, asset);
+		this.size += asset.weight;
+		
+		iterator = this.assets.values().iterator();
+		
+		while (this.size > this.capacity && iterator.hasNext()) {
+			old = iterator.next();
+			
+			iterator.remove();
+			
+			this.size -= old.weight;
+		}
+	}
+	
+	private synchronized void remove(String key) {
+		Asset old = this.assets.remove(key);
+		
+		if (old != null) {
+			this.size -= old.weight;
+		}
+	}
+	
+	/**
+	 * cache 하지 않는 file 의 응답. body 는 transferTo 로 보낸다.
+	 */
+	private static Response getFileResponse(Request request, File file, long modified, long length) {
+		String etag = etag(modified, length, Encoding.IDENTITY);
+		Response response;
+		
+		if (isNotModified(request, etag, modified)) {
+			return Response.getInstance(Response.Status.NOTMODIFIED)
+				.setResponseHeader("ETag", etag);
+		}
+		
+		response = Response.getInstance(Response.Status.OK, file, request.getRequestHeader("Range"));
+		
+		if (response != null && response.getStatus() != Response.Status.RANGENOTSATISFIABLE) {
+			response.setResponseHeader("ETag", etag)
+				.setResponseHeader("Last-Modified", HTTP_DATE.format(Instant.ofEpochMilli(modified)));
+		}
+		
+		return response;
+	}
+	
+	private static String etag(long modified, long length, Encoding encoding) {
+		return encoding == Encoding.IDENTITY?
+			String.format("\"%x-%x\"", modified, length):
+			String.format("\"%x-%x-%s\"", modified, length, encoding.getName());
+	}
+	
+	/**
+	 * If-None-Match 가 있으면 그것만, 없으면 If-Modified-Since 로 판단한다.
+	 */
+	private static boolean isNotModified(Request request, String etag, long modified) {
+		String ifNoneMatch = request.getRequestHeader("If-None-Match");
+		String ifModifiedSince;
+		
+		if (ifNoneMatch != null) {
+			for (String tag : ifNoneMatch.split(",")) {
+				tag = tag.trim();
+				
+				if (tag.equals("*") || tag.equals(etag) || tag.equals("W/"+ etag)) {
+					return true;
+				}
+			}
+			
+			return false;
+		}
+		
+		ifModifiedSince = request.getRequestHeader("If-Modified-Since");
+		
+		if (ifModifiedSince != null) {
+			try {
+				return modified / 1000 <= ZonedDateTime.parse(ifModifiedSince.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toEpochSecond();
+			} catch (DateTimeParseException dtpe) {
+			}
+		}
+		
+		return false;
+	}
+	
+	private static boolean isCompressible(String type) {
+		return type != null && (type.startsWith("text/")
+			|| type.contains("javascript") || type.contains("json") || type.contains("xml"));
+	}
+	
+	private static class Asset {
+		
+		private final long modified;
+		private final long length;
+		private final String lastModified;
+		private final String type;
+		private final byte [] identity;
+		// 압축해도 작아지지 않으면 null
+		private final byte [] gzip;
+		private final byte [] deflate;
+		private final long weight;
+		private volatile long checked;
+		
+		private Asset(File file, long modified, long checked) throws IOException {
+			this.identity = Files.readAllBytes(file.toPath());
+			this.modified = modified;
+			this.length = this.identity.length;
+			this.lastModified = HTTP_DATE.format(Instant.ofEpochMilli(modified));
+			this.type = Response.getContentType(file);
+			this.checked = checked;
+			
+			if (isCompressible(this.type)) {
+				this.gzip = smaller(Encoding.GZIP.encode(this.identity, Deflater.BEST_COMPRESSION));
+				this.deflate = smaller(Encoding.DEFLATE.encode(this.identity, Deflater.BEST_COMPRESSION));
+			}
+			else {
+				this.gzip = null;
+				this.deflate = null;
+			}
+			
+			this.weight = this.identity.length
+				+ (this.gzip == null? 0: this.gzip.length)
+				+ (this.deflate == null? 0: this.deflate.length);
+		}
+		
+		private byte [] smaller(byte [] encoded) {
+			return encoded.length < this.identity.length? encoded: null;
+		}
+		
+		private Response getResponse(Request request) {
+			Encoding encoding = Encoding.negotiate(request.getRequestHeader("Accept-Encoding"));
+			byte [] body = this.identity;
+			String etag;
+			Response response;
+			
+			if (encoding == Encoding.GZIP && this.gzip != null) {
+				body = this.gzip;
+			}
+			else if (encoding == Encoding.DEFLATE && this.deflate != null) {
+				body = this.deflate;
+			}
+			else {
+				encoding = Encoding.IDENTITY;
+			}
+			
+			etag = etag(this.modified, this.length, encoding);
+			
+			if (isNotModified(request, etag, this.modified)) {
+				response = Response.getInstance(Response.Status.NOTMODIFIED);
+			}
+			else {
+				response = Response.getInstance(Response.Status.OK, body)
+					.setResponseHeader("Last-Modified", this.lastModified);
+				
+				if (this.type != null) {
+					response.setResponseHeader("Content-type", this.type);
+				}
+				
+				if (encoding != Encoding.IDENTITY) {
+					response.setResponseHeader("Content-Encoding", encoding.getName());
+				}
+			}
+			
+			if (this.gzip != null || this.deflate != null) {
+				response.setResponseHeader("Vary", "Accept-Encoding");
+			}
+			
+			return response.setResponseHeader("ETag", etag);
+		}
+		
+	}
+	
+}
@@ -0,0 +1,192 @@
+package com.itahm.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 요청 body. Content-Length 만큼 한번에 할당하고 SPILL_SIZE 보다 크면 임시 파일에 쓴다.
+ * 길이를 모르면(chunked) 작게 시작해서 늘리다가 SPILL_SIZE 를 넘으면 임시 파일로 옮긴다.
+ * 응답을 보낸 뒤에는 쓸 수 없다.
+ */
+class Body implements Closeable {
+
+	private final static int SPILL_SIZE = 1024 * 1024;
+	private final static int INITIAL_SIZE = 8 * 1024;
+	// 길이를 모름
+	private final static int UNKNOWN = -1;
+	
+	private final int length;
+	private ByteBuffer buffer;
+	private FileChannel file;
+	private int size = 0;
+	
+	Body(int length) throws IOException {
+		this.length = length;
+		
+		if (length > SPILL_SIZE) {
+			spill();
+		}
+		else {
+			this.buffer = ByteBuffer.allocate(length);
+		}
+	}
+	
+	Body() {
+		this.length = UNKNOWN;
+		this.buffer = ByteBuffer.allocate(INITIAL_SIZE);
+	}
+	
+	/**
+	 * 길이를 모르는 body 는 끝을 알지 못하므로 false.
+	 */
+	boolean isComplete() {
+		return this.size == this.length;
+	}
+	
+	/**
+	 * 길이를 알고 파일이 아니면 socket 에서 body 로 바로 읽을 수 있다.
+	 */
+	boolean isDirect() {
+		return this.buffer != null && this.length != UNKNOWN;
+	}
+	
+	int read(ReadableByteChannel channel) throws IOException {
+		int bytes = channel.read(this.buffer);
+		
+		if (bytes > 0) {
+			this.size += bytes;
+		}
+		
+		return bytes;
+	}
+	
+	/**
+	 * src 에서 body 의 남은 길이만큼만 가져온다. 그 뒤는 다음 요청이다.
+	 */
+	void write(ByteBuffer src) throws IOException {
+		int length = this.length == UNKNOWN? src.remaining(): Math.min(src.remaining(), this.length - this.size);
+		int limit = src.limit();
+		
+		if (length == 0) {
+			return;
+		}
+		
+		if (this.length == UNKNOWN) {
+			ensure(length);
+		}
+		
+		src.limit(src.position() + length);
+		
+		try {
+			if (this.buffer != null) {
+				this.buffer.put(src);
+			}
+			else {
+				while (src.hasRemaining()) {
+					this.file.write(src);
+				}
+			}
+		}
+		finally {
+			src.limit(limit);
+		}
+		
+		this.size += length;
+	}
+	
+	/**
+	 * 길이를 모르는 body 는 지금까지 받은 만큼.
+	 */
+	int length() {
+		return this.length == UNKNOWN? this.size: this.length;
+	}
+	
+	private void ensure(int length) throws IOException {
+		if (this.size > Integer.MAX_VALUE - length) {
+			throw new IOException("request body too large");
+		}
+		
+		if (this.buffer == null || this.buffer.remaining() >= length) {
+			return;
+		}
+		
+		if (this.size + length > SPILL_SIZE) {
+			ByteBuffer buffer = this.buffer;
+			
+			spill();
+			
+			buffer.flip();
+			
+			while (buffer.hasRemaining()) {
+				this.file.write(buffer);
+			}
+		}
+		else {
+			ByteBuffer buffer = ByteBuffer.allocate(Math.min(SPILL_SIZE, Math.max(this.buffer.capacity() *2, this.size + length)));
+			
+			this.buffer.flip();
+			buffer.put(this.buffer);
+			
+			this.buffer = buffer;
+		}
+	}
+	
+	private void spill() throws IOException {
+		this.buffer = null;
+		this.file = FileChannel.open(Files.createTempFile("itahm", ".body"),
+			StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+	}
+	
+	ByteBuffer getBuffer() throws IOException {
+		if (this.buffer != null) {
+			ByteBuffer buffer = this.buffer.duplicate();
+			
+			buffer.flip();
+			
+			return buffer.asReadOnlyBuffer();
+		}
+		
+		return this.file.map(FileChannel.MapMode.READ_ONLY, 0, this.size);
+	}
+	
+	InputStream getInputStream() throws IOException {
+		if (this.buffer != null) {
+			return new ByteArrayInputStream(this.buffer.array(), 0, this.size);
+		}
+		
+		return Channels.newInputStream(this.file.position(0));
+	}
+	
+	byte [] toByteArray() throws IOException {
+		if (this.buffer != null && this.size == this.buffer.capacity()) {
+			return this.buffer.array();
+		}
+		
+		ByteBuffer buffer = getBuffer();
+		byte [] bytes = new byte [buffer.remaining()];
+		
+		buffer.get(bytes);
+		
+		return bytes;
+	}
+	
+	@Override
+	public void close() {
+		if (this.file != null) {
+			try {
+				this.file.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+	
+}
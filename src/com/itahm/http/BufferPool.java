@@ -0,0 +1,50 @@
+package com.itahm.http;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 같은 크기의 direct buffer 를 다시 쓰기 위한 pool. 돌려받은 buffer 는 max 개까지만 둔다.
+ */
+class BufferPool {
+
+	private final int size;
+	private final int max;
+	private final ConcurrentLinkedQueue<ByteBuffer> free = new ConcurrentLinkedQueue<ByteBuffer>();
+	private final AtomicInteger count = new AtomicInteger(0);
+	
+	BufferPool(int size, int max) {
+		this.size = size;
+		this.max = max;
+	}
+	
+	int getSize() {
+		return this.size;
+	}
+	
+	ByteBuffer acquire() {
+		ByteBuffer buffer = this.free.poll();
+		
+		if (buffer == null) {
+			return ByteBuffer.allocateDirect(this.size);
+		}
+		
+		this.count.decrementAndGet();
+		
+		buffer.clear();
+		
+		return buffer;
+	}
+	
+	void release(ByteBuffer buffer) {
+		if (this.count.incrementAndGet() > this.max) {
+			this.count.decrementAndGet();
+			
+			return;
+		}
+		
+		this.free.offer(buffer);
+	}
+	
+}
@@ -0,0 +1,165 @@
+package com.itahm.http;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Transfer-Encoding: chunked 로 온 요청 body 를 풀어서 Body 에 쓴다.
+ * 조각이 나뉘어 도착해도 되며 chunk extension 과 trailer 는 버린다.
+ * chunk size 의 합이 max 를 넘으면 data 를 받기 전에 413 으로 거절한다.
+ */
+class Chunked {
+	
+	// chunk size 줄과 trailer 전체의 최대 길이
+	private final static int MAX_LINE = 4096;
+	
+	private final static int SIZE = 0;
+	private final static int DATA = 1;
+	private final static int DATA_END = 2;
+	private final static int TRAILER = 3;
+	private final static int DONE = 4;
+	
+	private final StringBuilder line = new StringBuilder();
+	private final long max;
+	private int state = SIZE;
+	private long remaining;
+	private int trailer = 0;
+	private long total = 0;
+	
+	Chunked(long max) {
+		this.max = max;
+	}
+	
+	/**
+	 * src 에서 body 의 끝까지만 가져온다. 그 뒤는 다음 요청이다.
+	 * @return 마지막 chunk 와 trailer 까지 다 받았으면 true.
+	 */
+	boolean decode(ByteBuffer src, Body body) throws IOException, HTTPException {
+		String line;
+		
+		while (this.state != DONE && src.hasRemaining()) {
+			switch (this.state) {
+			case SIZE:
+				if ((line = readLine(src)) == null) {
+					return false;
+				}
+				
+				this.remaining = parseSize(line);
+				
+				if ((this.total += this.remaining) > this.max) {
+					throw new HTTPException(Response.Status.TOOLARGE, "Request body too large.");
+				}
+				
+				this.state = this.remaining == 0? TRAILER: DATA;
+				
+				break;
+			case DATA:
+				int length = (int)Math.min(this.remaining, src.remaining());
+				int limit = src.limit();
+				
+				src.limit(src.position() + length);
+				
+				try {
+					body.write(src);
+				} finally {
+					src.limit(limit);
+				}
+				
+				this.remaining -= length;
+				
+				if (this.remaining == 0) {
+					this.state = DATA_END;
+				}
+				
+				break;
+			case DATA_END:
+				if ((line = readLine(src)) == null) {
+					return false;
+				}
+				
+				if (line.length() > 0) {
+					throw new HTTPException("Invalid chunk.");
+				}
+				
+				this.state = SIZE;
+				
+				break;
+			case TRAILER:
+				if ((line = readLine(src)) == null) {
+					return false;
+				}
+				
+				if (line.length() == 0) {
+					this.state = DONE;
+				}
+				else if ((this.trailer += line.length()) > MAX_LINE) {
+					throw new HTTPException("Trailer too large.");
+				}
+			}
+		}
+		
+		return this.state == DONE;
+	}
+	
+	/**
+	 * LF 까지 읽어 CR 을 뺀 줄. 아직 줄이 끝나지 않았으면 null.
+	 */
+	private String readLine(ByteBuffer src) throws HTTPException {
+		String line;
+		int end;
+		byte b;
+		
+		while (src.hasRemaining()) {
+			b = src.get();
+			
+			if (b == Request.LF) {
+				end = this.line.length();
+				
+				if (end > 0 && this.line.charAt(end -1) == '\r') {
+					end--;
+				}
+				
+				line = this.line.substring(0, end);
+				
+				this.line.setLength(0);
+				
+				return line;
+			}
+			
+			if (this.line.length() >= MAX_LINE) {
+				throw new HTTPException("Chunk line too long.");
+			}
+			
+			this.line.append((char)(b & 0xff));
+		}
+		
+		return null;
+	}
+	
+	private static long parseSize(String line) throws HTTPException {
+		long size = 0;
+		int digit, i;
+		
+		for (i=0; i<line.length(); i++) {
+			digit = Character.digit(line.charAt(i), 16);
+			
+			if (digit < 0) {
+				break;
+			}
+			
+			if (size > (Integer.MAX_VALUE >> 4)) {
+				throw new HTTPException("Chunk too large.");
+			}
+			
+			size = size *16 + digit;
+		}
+		
+		// 뒤에 올 수 있는 것은 공백과 chunk extension 뿐이다.
+		if (i == 0 || i < line.length() && line.charAt(i) != ';' && line.charAt(i) != ' ' && line.charAt(i) != '\t') {
+			throw new HTTPException("Invalid chunk size.");
+		}
+		
+		return size;
+	}
+	
+}
@@ -0,0 +1,161 @@
+package com.itahm.http;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * 길이를 모르는 응답 body 를 만들어지는 대로 Transfer-Encoding: chunked 로 보낸다.
+ * CHUNK_SIZE 만큼 모아 chunk 하나로 보내며 close 해야 응답이 끝나고 같은 연결의 다음 요청을 처리한다.
+ * HTTP/1.0 client 에게는 chunk 없이 보내고 응답이 끝나면 연결을 닫는다.
+ * 보내지 못한 양이 많으면 write 는 줄어들 때까지 기다리며, write timeout 이 지나면 연결을 끊고 IOException.
+ */
+public class ChunkedStream extends OutputStream {
+	
+	private final static int CHUNK_SIZE = 8192;
+	private final static byte [] LAST = "0\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+	
+	private final Request request;
+	private final Response response;
+	private final boolean chunked;
+	private final byte [] buffer = new byte [CHUNK_SIZE];
+	private int count = 0;
+	private boolean closed = false;
+	
+	private ChunkedStream(Request request, Response response, boolean chunked) {
+		this.request = request;
+		this.response = response;
+		this.chunked = chunked;
+	}
+	
+	public static ChunkedStream open(Request request, Response response) throws IOException {
+		boolean chunked = !"HTTP/1.0".equalsIgnoreCase(request.getRequestVersion());
+		
+		if (chunked) {
+			response.setResponseHeader("Transfer-Encoding", "chunked");
+		}
+		else {
+			response.setResponseHeader("Connection", "close");
+		}
+		
+		if (!request.sendChunkedHeader(response)) {
+			return null;
+		}
+		
+		return new ChunkedStream(request, response, chunked);
+	}
+	
+	public Request getRequest() {
+		return this.request;
+	}
+	
+	@Override
+	public void write(int b) throws IOException {
+		if (this.count == this.buffer.length) {
+			flushBuffer();
+		}
+		
+		this.buffer[this.count++] = (byte)b;
+	}
+	
+	@Override
+	public void write(byte [] b, int off, int len) throws IOException {
+		if (len >= this.buffer.length) {
+			flushBuffer();
+			
+			send(b, off, len);
+			
+			return;
+		}
+		
+		if (len > this.buffer.length - this.count) {
+			flushBuffer();
+		}
+		
+		System.arraycopy(b, off, this.buffer, this.count, len);
+		
+		this.count += len;
+	}
+	
+	/**
+	 * 모아 둔 것을 chunk 로 보낸다.
+	 */
+	@Override
+	public void flush() throws IOException {
+		flushBuffer();
+	}
+	
+	/**
+	 * 남은 것과 마지막 chunk 를 보내 응답을 끝낸다.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (this.closed) {
+			return;
+		}
+		
+		flushBuffer();
+		
+		this.closed = true;
+		
+		if (!this.request.endChunked(this.response, ByteBuffer.wrap(this.chunked? LAST: new byte [0]))) {
+			throw new IOException("connection closed");
+		}
+	}
+	
+	/**
+	 * 응답을 끝까지 만들 수 없을 때 연결을 끊는다. client 는 마지막 chunk 를 받지 못하므로 응답이 잘렸음을 안다.
+	 */
+	public void abort() {
+		this.closed = true;
+		
+		this.request.abort();
+	}
+	
+	private void flushBuffer() throws IOException {
+		if (this.count > 0) {
+			send(this.buffer, 0, this.count);
+			
+			this.count = 0;
+		}
+	}
+	
+	private void send(byte [] b, int off, int len) throws IOException {
+		ByteBuffer chunk;
+		byte [] size;
+		
+		if (this.closed) {
+			throw new IOException("stream closed");
+		}
+		
+		try {
+			this.request.await();
+		} catch (IOException ioe) {
+			this.closed = true;
+			
+			throw ioe;
+		}
+		
+		if (this.chunked) {
+			size = Integer.toHexString(len).getBytes(StandardCharsets.US_ASCII);
+			chunk = ByteBuffer.allocate(size.length + len + 4);
+			
+			chunk.put(size).put(Request.CR).put(Request.LF)
+				.put(b, off, len)
+				.put(Request.CR).put(Request.LF)
+				.flip();
+		}
+		else {
+			chunk = ByteBuffer.wrap(Arrays.copyOfRange(b, off, off + len));
+		}
+		
+		if (!this.request.write(chunk)) {
+			this.closed = true;
+			
+			throw new IOException("connection closed");
+		}
+	}
+	
+}
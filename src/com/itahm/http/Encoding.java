@@ -0,0 +1,117 @@
+package com.itahm.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 응답 body 의 Content-Encoding.
+ */
+public enum Encoding {
+	IDENTITY("identity"), GZIP("gzip"), DEFLATE("deflate");
+	
+	private final String name;
+	
+	private Encoding(String name) {
+		this.name = name;
+	}
+	
+	public String getName() {
+		return this.name;
+	}
+	
+	/**
+	 * Accept-Encoding 에서 q 가 가장 큰 것을 고른다. 같으면 gzip 을 먼저, 받을 수 있는 것이 없으면 IDENTITY.
+	 */
+	public static Encoding negotiate(String accept) {
+		double gzip = -1, deflate = -1, any = -1;
+		
+		if (accept == null) {
+			return IDENTITY;
+		}
+		
+		for (String coding : accept.split(",")) {
+			String [] params = coding.split(";");
+			double q = 1;
+			
+			for (int i=1; i<params.length; i++) {
+				String param = params[i].trim();
+				
+				if (param.startsWith("q=")) {
+					try {
+						q = Double.parseDouble(param.substring(2).trim());
+					} catch (NumberFormatException nfe) {
+						q = 0;
+					}
+				}
+			}
+			
+			switch (params[0].trim().toLowerCase(Locale.US)) {
+			case "gzip":
+			case "x-gzip":
+				gzip = q;
+				
+				break;
+			case "deflate":
+				deflate = q;
+				
+				break;
+			case "*":
+				any = q;
+			}
+		}
+		
+		if (gzip < 0) {
+			gzip = any;
+		}
+		
+		if (deflate < 0) {
+			deflate = any;
+		}
+		
+		if (gzip > 0 && gzip >= deflate) {
+			return GZIP;
+		}
+		
+		return deflate > 0? DEFLATE: IDENTITY;
+	}
+	
+	public byte [] encode(byte [] data) throws IOException {
+		return encode(data, Deflater.DEFAULT_COMPRESSION);
+	}
+	
+	public byte [] encode(byte [] data, final int level) throws IOException {
+		ByteArrayOutputStream baos;
+		
+		if (this == IDENTITY) {
+			return data;
+		}
+		
+		baos = new ByteArrayOutputStream(data.length / 4 + 64);
+		
+		if (this == GZIP) {
+			try (GZIPOutputStream gzip = new GZIPOutputStream(baos) {
+				{
+					def.setLevel(level);
+				}
+			}) {
+				gzip.write(data);
+			}
+		}
+		else {
+			Deflater deflater = new Deflater(level);
+			
+			try (DeflaterOutputStream zlib = new DeflaterOutputStream(baos, deflater)) {
+				zlib.write(data);
+			} finally {
+				deflater.end();
+			}
+		}
+		
+		return baos.toByteArray();
+	}
+	
+}
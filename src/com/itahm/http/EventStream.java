@@ -0,0 +1,52 @@
+package com.itahm.http;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Server-Sent Events (text/event-stream).
+ * 연결 하나를 점유하며 client 가 연결을 끊으면 Listener.onClose 로 알 수 있다.
+ */
+public class EventStream {
+
+	private final Request request;
+	
+	private EventStream(Request request) {
+		this.request = request;
+	}
+	
+	public static EventStream open(Request request, Response response) throws IOException {
+		response
+			.setResponseHeader("Content-Type", "text/event-stream; charset=utf-8")
+			.setResponseHeader("Cache-Control", "no-cache")
+			.setResponseHeader("Connection", "close");
+		
+		if (!request.sendStreamHeader(response)) {
+			return null;
+		}
+		
+		return new EventStream(request);
+	}
+	
+	public Request getRequest() {
+		return this.request;
+	}
+	
+	public boolean send(String id, String data) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		
+		if (id != null) {
+			sb.append("id: ").append(id).append('\n');
+		}
+		
+		for (String line : data.split("\n", -1)) {
+			sb.append("data: ").append(line).append('\n');
+		}
+		
+		sb.append('\n');
+		
+		return this.request.write(ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.UTF_8)));
+	}
+	
+}
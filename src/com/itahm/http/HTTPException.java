@@ -4,6 +4,9 @@ public class HTTPException extends Exception {
 
 	private static final long serialVersionUID = -4680009115440021771L;
 
+	// 요청을 거절할 때 보낼 응답
+	private Response.Status status = Response.Status.BADREQUEST;
+
 	public HTTPException() {
 		// TODO Auto-generated constructor stub
 	}
@@ -28,4 +31,14 @@ public class HTTPException extends Exception {
 		// TODO Auto-generated constructor stub
 	}
 
+	public HTTPException(Response.Status status, String message) {
+		super(message);
+
+		this.status = status;
+	}
+
+	public Response.Status getStatus() {
+		return this.status;
+	}
+
 }
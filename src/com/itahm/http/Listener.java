@@ -8,29 +8,46 @@ import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 
-import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 
-import java.util.HashSet;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.Set;
 import java.util.Timer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 
 public abstract class Listener extends Timer implements Runnable, Closeable {
 
-	private final static int BUF_SIZE = 2048;
-	
+	private final static long IDLE_TIMEOUT = TimeUnit.HOURS.toMillis(1);
+	private final static long MAX_BODY_SIZE = 16 * 1024 * 1024;
+	private final static long WRITE_TIMEOUT = TimeUnit.SECONDS.toMillis(30);
+
 	private final ServerSocketChannel channel;
 	private final ServerSocket listener;
 	private final Selector selector;
-	private final ByteBuffer buffer;
-	private final Set<Request> connections = new HashSet<Request>();
-	
-	private Boolean closed = false;
+	private final Reactor [] reactors;
+	private final Set<Request> connections = Collections.newSetFromMap(new ConcurrentHashMap<Request, Boolean>());
+	private final AtomicBoolean closed = new AtomicBoolean(false);
+	private volatile Executor executor;
+	private volatile long idleTimeout = IDLE_TIMEOUT;
+	private volatile long maxBodySize = MAX_BODY_SIZE;
+	private volatile long writeTimeout = WRITE_TIMEOUT;
+	private final Metrics metrics = new Metrics();
+	private final Metrics.Family<Metrics.Histogram> requests = this.metrics.histogram("http_request_duration_seconds",
+		"Time from a complete request to its response being queued.", Metrics.LATENCY, "method", "status");
+	private final Metrics.Counter received = this.metrics.counter("http_received_bytes_total", "Bytes read from clients.").get();
+	private final Metrics.Counter sent = this.metrics.counter("http_sent_bytes_total", "Bytes written to clients.").get();
+	private final Metrics.Histogram loop = this.metrics.histogram("http_selector_loop_seconds",
+		"Time a selector loop iteration spends outside select().", Metrics.LATENCY).get();
+	private volatile String metricsPath = "/metrics";
+	private int next = 0;
 	
 	public Listener() throws IOException {
 		this("0.0.0.0", 80);
@@ -49,32 +66,53 @@ public abstract class Listener extends Timer implements Runnable, Closeable {
 	}
 	
 	public Listener(InetSocketAddress addr) throws IOException {
+		this(addr, 1);
+	}
+	
+	/**
+	 * @param reactors 연결을 나누어 맡을 selector thread 의 수.
+	 * 1 이 아니면 onRequest 가 여러 thread 에서 동시에 호출된다.
+	 */
+	public Listener(InetSocketAddress addr, int reactors) throws IOException {
 		channel = ServerSocketChannel.open();
 		listener = channel.socket();
 		selector = Selector.open();
-		buffer = ByteBuffer.allocateDirect(BUF_SIZE);
+		this.reactors = new Reactor [Math.max(1, reactors)];
+		
+		for (int i=0; i<this.reactors.length; i++) {
+			this.reactors[i] = new Reactor(this);
+		}
+		
+		this.metrics.collect("http_connections", "Open connections.", "gauge", new Metrics.Collector() {
+
+			@Override
+			public void collect(Metrics.Samples samples) {
+				samples.add(connections.size());
+			}
+		});
 		
 		listener.bind(addr);
 		channel.configureBlocking(false);
 		channel.register(selector, SelectionKey.OP_ACCEPT);
 		
+		for (int i=0; i<this.reactors.length; i++) {
+			new Thread(this.reactors[i], "reactor-"+ i).start();
+		}
+		
 		new Thread(this).start();
 		
 		onStart();
 	}
 	
-	private void onConnect() {
+	private void onAccept() {
 		SocketChannel channel = null;
-		Request request;
 		
 		try {
-			channel = this.channel.accept();
-			request = new Request(channel, this);
-			
-			channel.configureBlocking(false);
-			channel.register(this.selector, SelectionKey.OP_READ, request);
-			
-			connections.add(request);
+			while ((channel = this.channel.accept()) != null) {
+				channel.configureBlocking(false);
+				
+				this.reactors[this.next++ % this.reactors.length].register(channel);
+			}
 			
 			return;
 		} catch (IOException e) {
@@ -90,38 +128,130 @@ public abstract class Listener extends Timer implements Runnable, Closeable {
 		}
 	}
 	
-	private void onRead(SelectionKey key) {
-		SocketChannel channel = (SocketChannel)key.channel();
-		Request request = (Request)key.attachment();
-		int bytes = 0;
+	void onConnect(Request request) {
+		this.connections.add(request);
+		
+		if (this.closed.get()) {
+			closeRequest(request);
+		}
+	}
+	
+	/**
+	 * onRequest 를 selector thread 대신 executor 에서 호출한다. null 이면 selector thread 에서 바로 호출한다.
+	 * 같은 연결의 요청은 앞 요청의 응답이 보내진 뒤에 dispatch 되므로 순서가 유지된다.
+	 */
+	public void setExecutor(Executor executor) {
+		this.executor = executor;
+	}
+	
+	Executor getExecutor() {
+		return this.executor;
+	}
+	
+	/**
+	 * 이 시간(ms) 동안 읽거나 쓴 것이 없는 연결은 끊는다. 기본은 1시간.
+	 */
+	public void setIdleTimeout(long timeout) {
+		if (timeout <= 0) {
+			throw new IllegalArgumentException();
+		}
 		
-		this.buffer.clear();
+		this.idleTimeout = timeout;
+	}
+	
+	long getIdleTimeout() {
+		return this.idleTimeout;
+	}
+	
+	/**
+	 * 이보다 큰 요청 body 는 받지 않고 413 으로 답한 뒤 연결을 끊는다. 기본은 16MB.
+	 */
+	public void setMaxBodySize(long size) {
+		if (size < 0 || size > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException();
+		}
 		
-		try {
-			bytes = channel.read(buffer);
-			
-			if (bytes != -1) {
-				if (bytes > 0) {
-					this.buffer.flip();
-					
-					request.parse(this.buffer);
-				}
-				
-				return;
-			}
-		} catch (IOException ioe) {
-			// Client RESET에 의한 예외일 수 있음.
+		this.maxBodySize = size;
+	}
+	
+	long getMaxBodySize() {
+		return this.maxBodySize;
+	}
+	
+	/**
+	 * 응답을 만드는 thread 가 client 가 받아 가기를 이 시간(ms) 넘게 기다리면 연결을 끊는다. 기본은 30초.
+	 */
+	public void setWriteTimeout(long timeout) {
+		if (timeout <= 0) {
+			throw new IllegalArgumentException();
 		}
 		
-		closeRequest(request);
+		this.writeTimeout = timeout;
 	}
-
+	
+	long getWriteTimeout() {
+		return this.writeTimeout;
+	}
+	
+	public Metrics getMetrics() {
+		return this.metrics;
+	}
+	
+	/**
+	 * 이 경로의 GET 에는 Listener 가 직접 metric 을 응답한다. null 이면 응답하지 않는다.
+	 */
+	public void setMetricsPath(String path) {
+		this.metricsPath = path;
+	}
+	
+	/**
+	 * Listener 가 직접 응답하는 요청이면 응답하고 true.
+	 */
+	boolean serve(Request request) throws IOException {
+		String path = this.metricsPath;
+		String uri = request.getRequestURI();
+		
+		if (path == null || !Request.GET.equals(request.getRequestMethod()) || !uri.startsWith(path)
+			|| uri.length() > path.length() && uri.charAt(path.length()) != '?') {
+			return false;
+		}
+		
+		request.sendResponse(Response.getInstance(Response.Status.OK, this.metrics.toString())
+			.setResponseHeader("Content-Type", "text/plain; version=0.0.4; charset=utf-8"));
+		
+		return true;
+	}
+	
+	void onResponse(String method, int status, long nanos) {
+		if (method == null) {
+			method = "NONE";
+		}
+		else if (method != Request.GET && method != Request.POST && method != Request.HEAD) {
+			// 알 수 없는 method 가 label 을 끝없이 늘리지 않도록 한다.
+			method = "OTHER";
+		}
+		
+		this.requests.get(method, Integer.toString(status)).observeNanos(nanos);
+	}
+	
+	void onReceive(long bytes) {
+		this.received.add(bytes);
+	}
+	
+	void onSend(long bytes) {
+		this.sent.add(bytes);
+	}
+	
+	void onLoop(long nanos) {
+		this.loop.observeNanos(nanos);
+	}
+	
 	public void closeRequest(Request request) {
 		request.close();
 		
-		connections.remove(request);
-		
-		onClose(request);
+		if (this.connections.remove(request)) {
+			onClose(request);
+		}
 	}
 	
 	public int getConnectionSize() {
@@ -130,12 +260,8 @@ public abstract class Listener extends Timer implements Runnable, Closeable {
 	
 	@Override
 	public void close() throws IOException {
-		synchronized (this.closed) {
-			if (this.closed) {
-				return;
-			}
-		
-			this.closed = true;
+		if (!this.closed.compareAndSet(false, true)) {
+			return;
 		}
 		
 		for (Request request : connections) {
@@ -146,6 +272,10 @@ public abstract class Listener extends Timer implements Runnable, Closeable {
 		
 		cancel();
 		
+		for (Reactor reactor : this.reactors) {
+			reactor.close();
+		}
+		
 		this.selector.wakeup();
 	}
 
@@ -155,7 +285,7 @@ public abstract class Listener extends Timer implements Runnable, Closeable {
 		SelectionKey key = null;
 		int count;
 		
-		while(!this.closed) {
+		while(!this.closed.get()) {
 			try {
 				count = this.selector.select();
 			} catch (IOException e) {
@@ -170,15 +300,8 @@ public abstract class Listener extends Timer implements Runnable, Closeable {
 					key = iterator.next();
 					iterator.remove();
 					
-					if (!key.isValid()) {
-						continue;
-					}
-					
-					if (key.isAcceptable()) {
-						onConnect();
-					}
-					else if (key.isReadable()) {
-						onRead(key);
+					if (key.isValid() && key.isAcceptable()) {
+						onAccept();
 					}
 				}
 			}
@@ -207,7 +330,32 @@ public abstract class Listener extends Timer implements Runnable, Closeable {
 	}
 	
 	public static void main(String [] args) throws IOException {
-		final Listener server = new Listener() {
+		int reactors = 1;
+		
+		// 인자는 연결을 나누어 맡을 selector thread 의 수.
+		if (args.length > 0) {
+			try {
+				reactors = Integer.parseInt(args[0]);
+			} catch (NumberFormatException nfe) {
+			}
+		}
+		
+		final Listener server = fileServer(new InetSocketAddress(80), reactors);
+		
+		System.in.read();
+		
+		server.close();
+	}
+	
+	/**
+	 * 현재 directory 의 file 을 GET 으로 내려주는 예제 server.
+	 * 1MB 이하의 file 은 모두 32MB 까지 압축한 것과 함께 memory 에 둔다.
+	 * @param reactors 연결을 나누어 맡을 selector thread 의 수
+	 */
+	static Listener fileServer(InetSocketAddress addr, int reactors) throws IOException {
+		final AssetCache cache = new AssetCache(32 * 1024 * 1024, 1024 * 1024);
+		
+		return new Listener(addr, reactors) {
 
 			@Override
 			protected void onRequest(Request request) {
@@ -220,7 +368,7 @@ public abstract class Listener extends Timer implements Runnable, Closeable {
 						uri = "/index.html";
 					}
 					
-					Response response = Response.getInstance(Response.Status.OK, new File("."+ uri));
+					Response response = cache.getResponse(request, new File("."+ uri));
 						
 					if (response == null) {
 						response = Response.getInstance(Response.Status.NOTFOUND);
@@ -248,10 +396,6 @@ public abstract class Listener extends Timer implements Runnable, Closeable {
 			}
 
 		};
-		
-		System.in.read();
-		
-		server.close();
 	}
 	
 }
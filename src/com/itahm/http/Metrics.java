@@ -0,0 +1,349 @@
+package com.itahm.http;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Prometheus text format (0.0.4) 으로 내보내는 metric 들.
+ * counter 와 histogram 은 LongAdder 로 세므로 여러 thread 가 동시에 올려도 서로 막지 않는다.
+ * label 값마다의 child 는 처음 쓸 때 만들어지므로 자주 쓰는 child 는 받아 두고 쓰는 것이 좋다.
+ */
+public class Metrics {
+
+	public final static double [] LATENCY = new double [] {
+		.0001, .00025, .0005, .001, .0025, .005, .01, .025, .05, .1, .25, .5, 1, 2.5, 5, 10
+	};
+	
+	public interface Collector {
+		/**
+		 * 내보낼 때마다 호출된다.
+		 */
+		public void collect(Samples samples);
+	}
+	
+	private final List<Metric> metrics = new CopyOnWriteArrayList<Metric>();
+	
+	public Family<Counter> counter(String name, String help, String... labels) {
+		return register(new Family<Counter>(name, help, "counter", labels) {
+
+			@Override
+			protected Counter create() {
+				return new Counter();
+			}
+		});
+	}
+	
+	public Family<Histogram> histogram(String name, String help, final double [] buckets, String... labels) {
+		return register(new Family<Histogram>(name, help, "histogram", labels) {
+
+			@Override
+			protected Histogram create() {
+				return new Histogram(buckets);
+			}
+		});
+	}
+	
+	/**
+	 * 값을 직접 세지 않고 내보낼 때 collector 에게서 받는 metric.
+	 * @param type "gauge" 또는 "counter"
+	 */
+	public void collect(String name, String help, String type, Collector collector, String... labels) {
+		register(new Collected(name, help, type, labels, collector));
+	}
+	
+	private <T extends Metric> T register(T metric) {
+		this.metrics.add(metric);
+		
+		return metric;
+	}
+	
+	public void write(StringBuilder sb) {
+		for (Metric metric : this.metrics) {
+			metric.write(sb);
+		}
+	}
+	
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder(4096);
+		
+		write(sb);
+		
+		return sb.toString();
+	}
+	
+	private static void labels(StringBuilder sb, String [] names, String [] values, String le) {
+		boolean first = true;
+		
+		if (names.length == 0 && le == null) {
+			return;
+		}
+		
+		sb.append('{');
+		
+		for (int i=0; i<names.length; i++) {
+			if (first) {
+				first = false;
+			}
+			else {
+				sb.append(',');
+			}
+			
+			sb.append(names[i]).append("=\"");
+			escape(sb, i < values.length? values[i]: "");
+			sb.append('"');
+		}
+		
+		if (le != null) {
+			if (!first) {
+				sb.append(',');
+			}
+			
+			sb.append("le=\"").append(le).append('"');
+		}
+		
+		sb.append('}');
+	}
+	
+	private static void escape(StringBuilder sb, String value) {
+		char c;
+		
+		for (int i=0, _i=value.length(); i<_i; i++) {
+			c = value.charAt(i);
+			
+			switch (c) {
+			case '\\':
+				sb.append("\\\\");
+				
+				break;
+			case '"':
+				sb.append("\\\"");
+				
+				break;
+			case '\n':
+				sb.append("\\n");
+				
+				break;
+			default:
+				sb.append(c);
+			}
+		}
+	}
+	
+	private static void number(StringBuilder sb, double value) {
+		if (value == (long)value) {
+			sb.append((long)value);
+		}
+		else {
+			sb.append(value);
+		}
+	}
+	
+	/**
+	 * 이름과 설명, type, label 이름. 값을 어떻게 내보내는지는 하위 class 가 정한다.
+	 */
+	static abstract class Metric {
+		
+		final String name;
+		final String help;
+		final String type;
+		final String [] labels;
+		
+		Metric(String name, String help, String type, String [] labels) {
+			this.name = name;
+			this.help = help;
+			this.type = type;
+			this.labels = labels;
+		}
+		
+		void writeHeader(StringBuilder sb) {
+			sb.append("# HELP ").append(this.name).append(' ').append(this.help).append('\n');
+			sb.append("# TYPE ").append(this.name).append(' ').append(this.type).append('\n');
+		}
+		
+		abstract void write(StringBuilder sb);
+		
+	}
+	
+	/**
+	 * label 값마다 child 를 만들어 직접 세는 metric.
+	 */
+	public static abstract class Family<T> extends Metric {
+		
+		private final Map<List<String>, T> children = new ConcurrentHashMap<List<String>, T>();
+		
+		Family(String name, String help, String type, String [] labels) {
+			super(name, help, type, labels);
+		}
+		
+		protected abstract T create();
+		
+		/**
+		 * labels 의 순서대로 값을 준다.
+		 */
+		public T get(String... values) {
+			List<String> key = Arrays.asList(values);
+			T child = this.children.get(key);
+			
+			if (child == null) {
+				T c = create();
+				
+				child = this.children.putIfAbsent(Arrays.asList(values.clone()), c);
+				
+				if (child == null) {
+					child = c;
+				}
+			}
+			
+			return child;
+		}
+		
+		@Override
+		void write(StringBuilder sb) {
+			String [] values;
+			T child;
+			
+			writeHeader(sb);
+			
+			for (Map.Entry<List<String>, T> entry : this.children.entrySet()) {
+				values = entry.getKey().toArray(new String [0]);
+				child = entry.getValue();
+				
+				if (child instanceof Histogram) {
+					((Histogram)child).write(sb, this.name, this.labels, values);
+				}
+				else {
+					sb.append(this.name);
+					labels(sb, this.labels, values, null);
+					sb.append(' ');
+					number(sb, ((Counter)child).get());
+					sb.append('\n');
+				}
+			}
+		}
+		
+	}
+	
+	/**
+	 * 값을 세지 않고 내보낼 때마다 collector 에게서 받는다. child 가 없다.
+	 */
+	private static class Collected extends Metric {
+		
+		private final Collector collector;
+		
+		Collected(String name, String help, String type, String [] labels, Collector collector) {
+			super(name, help, type, labels);
+			
+			this.collector = collector;
+		}
+		
+		@Override
+		void write(StringBuilder sb) {
+			Samples samples = new Samples(this);
+			
+			this.collector.collect(samples);
+			
+			writeHeader(sb);
+			
+			sb.append(samples.sb);
+		}
+		
+	}
+	
+	public static class Counter {
+		
+		private final LongAdder count = new LongAdder();
+		
+		public void inc() {
+			this.count.increment();
+		}
+		
+		public void add(long value) {
+			this.count.add(value);
+		}
+		
+		public long get() {
+			return this.count.sum();
+		}
+		
+	}
+	
+	public static class Histogram {
+		
+		private final double [] buckets;
+		private final LongAdder [] counts;
+		private final DoubleAdder sum = new DoubleAdder();
+		
+		Histogram(double [] buckets) {
+			this.buckets = buckets;
+			this.counts = new LongAdder [buckets.length + 1];
+			
+			for (int i=0; i<this.counts.length; i++) {
+				this.counts[i] = new LongAdder();
+			}
+		}
+		
+		public void observe(double value) {
+			int i = 0;
+			
+			while (i < this.buckets.length && value > this.buckets[i]) {
+				i++;
+			}
+			
+			this.counts[i].increment();
+			this.sum.add(value);
+		}
+		
+		public void observeNanos(long nanos) {
+			observe(nanos / 1e9);
+		}
+		
+		void write(StringBuilder sb, String name, String [] names, String [] values) {
+			long count = 0;
+			
+			for (int i=0; i<this.counts.length; i++) {
+				count += this.counts[i].sum();
+				
+				sb.append(name).append("_bucket");
+				labels(sb, names, values, i < this.buckets.length? Double.toString(this.buckets[i]): "+Inf");
+				sb.append(' ').append(count).append('\n');
+			}
+			
+			sb.append(name).append("_sum");
+			labels(sb, names, values, null);
+			sb.append(' ');
+			number(sb, this.sum.sum());
+			sb.append('\n');
+			
+			sb.append(name).append("_count");
+			labels(sb, names, values, null);
+			sb.append(' ').append(count).append('\n');
+		}
+		
+	}
+	
+	public static class Samples {
+		
+		private final Metric metric;
+		private final StringBuilder sb = new StringBuilder();
+		
+		Samples(Metric metric) {
+			this.metric = metric;
+		}
+		
+		public void add(double value, String... values) {
+			this.sb.append(this.metric.name);
+			labels(this.sb, this.metric.labels, values, null);
+			this.sb.append(' ');
+			number(this.sb, value);
+			this.sb.append('\n');
+		}
+		
+	}
+	
+}
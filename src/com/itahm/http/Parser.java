@@ -0,0 +1,329 @@
+package com.itahm.http;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * request-line 과 header 를 읽는 상태 기계.
+ * 
+ * 받은 byte 를 연결마다 하나인 배열에 그대로 모으고 각 항목은 (offset, length) 로만 기억한다.
+ * String 은 요청될 때 만들어지며 header 이름은 대소문자 구분 없이 byte 단위로 비교한다.
+ * reset 후에는 배열을 다시 사용하므로 요청마다 할당이 일어나지 않는다.
+ */
+final class Parser {
+
+	private final static byte CR = '\r';
+	private final static byte LF = '\n';
+	private final static byte SP = ' ';
+	private final static byte HT = '\t';
+	private final static byte COLON = ':';
+	private final static int MAX_SIZE = 64 * 1024;
+	private final static int MAX_FIELDS = 128;
+	
+	private final static int REQUEST_LINE = 0;
+	private final static int HEADER_LINE = 1;
+	private final static int DONE = 2;
+	
+	private byte [] head = new byte [1024];
+	private int length = 0;
+	private int state = REQUEST_LINE;
+	private int lineStart = 0;
+	private int mark1 = -1;
+	private int mark2 = -1;
+	
+	private int methodStart, methodEnd, uriStart, uriEnd, versionStart, versionEnd;
+	private String method, uri, version;
+	
+	// field i: name [fields[4i], fields[4i]+fields[4i+1]), value [fields[4i+2], fields[4i+2]+fields[4i+3])
+	private int [] fields = new int [16 * 4];
+	private String [] values = new String [16];
+	private int count = 0;
+	
+	/**
+	 * @return header 의 끝(빈 줄)까지 읽었으면 true. 이때 src 는 body 의 시작을 가리킨다.
+	 */
+	boolean parse(ByteBuffer src) throws HTTPException {
+		int start = this.length;
+		int size = Math.min(src.remaining(), MAX_SIZE - this.length);
+		
+		if (this.state == DONE) {
+			return true;
+		}
+		
+		if (size == 0 && src.hasRemaining()) {
+			throw new HTTPException("Header too large");
+		}
+		
+		if (this.length + size > this.head.length) {
+			byte [] head = new byte [Math.min(MAX_SIZE, Math.max(this.head.length *2, this.length + size))];
+			
+			System.arraycopy(this.head, 0, head, 0, this.length);
+			
+			this.head = head;
+		}
+		
+		src.get(this.head, this.length, size);
+		this.length += size;
+		
+		for (int i=start; i<this.length; i++) {
+			switch (this.head[i]) {
+			case LF:
+				onLine(i +1, i > this.lineStart && this.head[i -1] == CR? i -1: i);
+				
+				if (this.state == DONE) {
+					// header 뒤의 byte 는 body 이므로 src 로 되돌린다.
+					src.position(src.position() - (this.length - i -1));
+					
+					this.length = i +1;
+					
+					return true;
+				}
+				
+				break;
+			case SP:
+				if (this.state == REQUEST_LINE) {
+					if (this.mark1 == -1) {
+						this.mark1 = i;
+					}
+					else if (this.mark2 == -1) {
+						this.mark2 = i;
+					}
+					else {
+						throw new HTTPException("Invalid start line");
+					}
+				}
+				
+				break;
+			case COLON:
+				if (this.state == HEADER_LINE && this.mark1 == -1) {
+					this.mark1 = i;
+				}
+			}
+		}
+		
+		return false;
+	}
+	
+	private void onLine(int next, int end) throws HTTPException {
+		if (this.state == REQUEST_LINE) {
+			if (end == this.lineStart) {
+				//규약에 의해 request-line 이전의 빈 라인은 무시한다.
+				this.lineStart = next;
+				
+				return;
+			}
+			
+			if (this.mark1 <= this.lineStart || this.mark2 <= this.mark1 + 1 || end <= this.mark2 + 1) {
+				throw new HTTPException("Invalid start line");
+			}
+			
+			this.methodStart = this.lineStart;
+			this.methodEnd = this.mark1;
+			this.uriStart = this.mark1 + 1;
+			this.uriEnd = this.mark2;
+			this.versionStart = this.mark2 + 1;
+			this.versionEnd = end;
+			
+			this.state = HEADER_LINE;
+		}
+		else if (end == this.lineStart) {
+			this.state = DONE;
+			
+			return;
+		}
+		else {
+			if (this.mark1 <= this.lineStart) {
+				throw new HTTPException("Invalid header");
+			}
+			
+			addField(this.lineStart, this.mark1, this.mark1 + 1, end);
+		}
+		
+		this.lineStart = next;
+		this.mark1 = this.mark2 = -1;
+	}
+	
+	private void addField(int nameStart, int nameEnd, int valueStart, int valueEnd) throws HTTPException {
+		int index = this.count *4;
+		
+		if (this.count == MAX_FIELDS) {
+			throw new HTTPException("Too many headers");
+		}
+		
+		if (index == this.fields.length) {
+			int [] fields = new int [index *2];
+			String [] values = new String [this.count *2];
+			
+			System.arraycopy(this.fields, 0, fields, 0, index);
+			System.arraycopy(this.values, 0, values, 0, this.count);
+			
+			this.fields = fields;
+			this.values = values;
+		}
+		
+		while (valueStart < valueEnd && (this.head[valueStart] == SP || this.head[valueStart] == HT)) {
+			valueStart++;
+		}
+		
+		while (valueEnd > valueStart && (this.head[valueEnd - 1] == SP || this.head[valueEnd - 1] == HT)) {
+			valueEnd--;
+		}
+		
+		this.fields[index] = nameStart;
+		this.fields[index +1] = nameEnd - nameStart;
+		this.fields[index +2] = valueStart;
+		this.fields[index +3] = valueEnd - valueStart;
+		
+		this.count++;
+	}
+	
+	void reset() {
+		for (int i=0; i<this.count; i++) {
+			this.values[i] = null;
+		}
+		
+		this.length = 0;
+		this.lineStart = 0;
+		this.state = REQUEST_LINE;
+		this.mark1 = this.mark2 = -1;
+		this.count = 0;
+		this.method = this.uri = this.version = null;
+	}
+	
+	String getMethod() {
+		if (this.method == null) {
+			this.method = intern(this.methodStart, this.methodEnd - this.methodStart);
+		}
+		
+		return this.method;
+	}
+	
+	String getURI() {
+		if (this.uri == null) {
+			this.uri = new String(this.head, this.uriStart, this.uriEnd - this.uriStart, StandardCharsets.ISO_8859_1);
+		}
+		
+		return this.uri;
+	}
+	
+	String getVersion() {
+		if (this.version == null) {
+			this.version = same(this.versionStart, this.versionEnd - this.versionStart, "HTTP/1.1")? "HTTP/1.1":
+				new String(this.head, this.versionStart, this.versionEnd - this.versionStart, StandardCharsets.ISO_8859_1);
+		}
+		
+		return this.version;
+	}
+	
+	String getHeader(String name) {
+		int index = indexOf(name);
+		
+		if (index == -1) {
+			return null;
+		}
+		
+		if (this.values[index] == null) {
+			this.values[index] = new String(this.head, this.fields[index *4 +2], this.fields[index *4 +3], StandardCharsets.ISO_8859_1);
+		}
+		
+		return this.values[index];
+	}
+	
+	/**
+	 * String 을 만들지 않고 header 값을 정수로 읽는다. 없으면 -1, 숫자가 아니면 -2.
+	 */
+	long getHeaderAsLong(String name) {
+		int index = indexOf(name);
+		long value = 0;
+		int offset, length;
+		byte b;
+		
+		if (index == -1) {
+			return -1;
+		}
+		
+		offset = this.fields[index *4 +2];
+		length = this.fields[index *4 +3];
+		
+		if (length == 0 || length > 18) {
+			return -2;
+		}
+		
+		for (int i=0; i<length; i++) {
+			b = this.head[offset + i];
+			
+			if (b < '0' || b > '9') {
+				return -2;
+			}
+			
+			value = value *10 + (b - '0');
+		}
+		
+		return value;
+	}
+	
+	private int indexOf(String name) {
+		int length = name.length();
+		
+		for (int i=0; i<this.count; i++) {
+			if (this.fields[i *4 +1] == length && equals(this.fields[i *4], length, name)) {
+				return i;
+			}
+		}
+		
+		return -1;
+	}
+	
+	private boolean equals(int offset, int length, String s) {
+		int c1, c2;
+		
+		if (s.length() != length) {
+			return false;
+		}
+		
+		for (int i=0; i<length; i++) {
+			c1 = this.head[offset + i];
+			c2 = s.charAt(i);
+			
+			if (c1 != c2) {
+				c1 |= 0x20;
+				c2 |= 0x20;
+				
+				if (c1 != c2 || c1 < 'a' || c1 > 'z') {
+					return false;
+				}
+			}
+		}
+		
+		return true;
+	}
+	
+	private boolean same(int offset, int length, String s) {
+		if (s.length() != length) {
+			return false;
+		}
+		
+		for (int i=0; i<length; i++) {
+			if (this.head[offset + i] != s.charAt(i)) {
+				return false;
+			}
+		}
+		
+		return true;
+	}
+	
+	private String intern(int offset, int length) {
+		if (same(offset, length, Request.GET)) {
+			return Request.GET;
+		}
+		else if (same(offset, length, Request.POST)) {
+			return Request.POST;
+		}
+		else if (same(offset, length, Request.HEAD)) {
+			return Request.HEAD;
+		}
+		
+		return new String(this.head, offset, length, StandardCharsets.ISO_8859_1);
+	}
+	
+}
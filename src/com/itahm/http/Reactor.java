@@ -0,0 +1,162 @@
+package com.itahm.http;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * 연결의 읽기, 쓰기와 요청 처리를 맡는 selector loop.
+ * Listener 가 받은 연결은 하나의 Reactor 에 속하며 그 연결의 모든 I/O 는 이 thread 에서 일어난다.
+ */
+class Reactor implements Runnable {
+
+	private final static long TICK = 1000;
+
+	private final Listener listener;
+	private final Selector selector;
+	private final Wheel wheel = new Wheel(TICK);
+	// 다른 thread 에서 요청한, selector thread 에서 실행할 작업
+	private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+	private volatile boolean closed = false;
+	private volatile Thread thread;
+	
+	Reactor(Listener listener) throws IOException {
+		this.listener = listener;
+		this.selector = Selector.open();
+	}
+	
+	void register(final SocketChannel channel) {
+		execute(new Runnable() {
+
+			@Override
+			public void run() {
+				Request request = new Request(channel, listener);
+				
+				try {
+					request.onRegister(channel.register(selector, SelectionKey.OP_READ, request), Reactor.this);
+					
+					wheel.add(request, request.getLastActive() + listener.getIdleTimeout());
+					
+					listener.onConnect(request);
+				} catch (IOException ioe) {
+					ioe.printStackTrace();
+					
+					request.close();
+				}
+			}
+		});
+	}
+	
+	/**
+	 * 지금 thread 가 이 selector loop 인지.
+	 */
+	boolean inLoop() {
+		return Thread.currentThread() == this.thread;
+	}
+	
+	void resume(final Request request) {
+		execute(new Runnable() {
+
+			@Override
+			public void run() {
+				request.resume();
+			}
+		});
+	}
+	
+	/**
+	 * selector thread 에서 task 를 실행한다.
+	 */
+	void execute(Runnable task) {
+		this.tasks.add(task);
+		
+		this.selector.wakeup();
+	}
+	
+	private void onRead(SelectionKey key) {
+		Request request = (Request)key.attachment();
+		
+		try {
+			if (request.read() != -1) {
+				return;
+			}
+		} catch (IOException ioe) {
+			// Client RESET에 의한 예외일 수 있음.
+		}
+		
+		this.listener.closeRequest(request);
+	}
+	
+	void close() {
+		this.closed = true;
+		
+		this.selector.wakeup();
+	}
+	
+	@Override
+	public void run() {
+		Iterator<SelectionKey> iterator = null;
+		SelectionKey key = null;
+		Runnable task;
+		int count;
+		long start, busy;
+		
+		this.thread = Thread.currentThread();
+		
+		while(!this.closed) {
+			start = System.nanoTime();
+			
+			while ((task = this.tasks.poll()) != null) {
+				task.run();
+			}
+			
+			// select 에서 기다리는 시간은 빼고 잰다.
+			busy = System.nanoTime() - start;
+			
+			try {
+				count = this.selector.select(this.wheel.next(System.currentTimeMillis()));
+			} catch (IOException e) {
+				e.printStackTrace();
+				
+				continue;
+			}
+			
+			start = System.nanoTime();
+			
+			if (count > 0) {
+				iterator = this.selector.selectedKeys().iterator();
+				while(iterator.hasNext()) {
+					key = iterator.next();
+					iterator.remove();
+					
+					if (!key.isValid()) {
+						continue;
+					}
+					
+					if (key.isReadable()) {
+						onRead(key);
+					}
+					
+					if (key.isValid() && key.isWritable()) {
+						((Request)key.attachment()).onWrite();
+					}
+				}
+			}
+			
+			this.wheel.expire(System.currentTimeMillis(), this.listener.getIdleTimeout());
+			
+			this.listener.onLoop(busy + System.nanoTime() - start);
+		}
+		
+		try {
+			this.selector.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+}
@@ -0,0 +1,48 @@
+package com.itahm.http;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * 응답으로 보낼 file 의 구간. transferTo 로 heap 을 거치지 않고 socket 으로 보낸다.
+ */
+class Region implements Closeable {
+
+	private final FileChannel file;
+	private final long end;
+	private long position;
+	
+	Region(FileChannel file, long position, long count) {
+		this.file = file;
+		this.position = position;
+		this.end = position + count;
+	}
+	
+	long remaining() {
+		return this.end - this.position;
+	}
+	
+	long transferTo(WritableByteChannel target) throws IOException {
+		long bytes = this.file.transferTo(this.position, this.end - this.position, target);
+		
+		if (bytes == 0 && this.position >= this.file.size()) {
+			throw new IOException("file truncated while sending");
+		}
+		
+		this.position += bytes;
+		
+		return bytes;
+	}
+	
+	@Override
+	public void close() {
+		try {
+			this.file.close();
+		} catch (IOException ioe) {
+			ioe.printStackTrace();
+		}
+	}
+	
+}
@@ -1,20 +1,33 @@
 package com.itahm.http;
 
-import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.net.SocketException;
+import java.net.SocketTimeoutException;
 import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
 
-import java.util.Calendar;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.TimerTask;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class Request implements Closeable {
 
-	private final static int TIME_OUT = 1; // hours
+	private final static int BUF_SIZE = 2048;
+	private final static int MAX_BUF_SIZE = 1024 * 1024;
+	// 보내지 못한 응답의 양이 HIGH_WATER 를 넘으면 LOW_WATER 아래로 줄 때까지 요청을 읽지 않는다.
+	// 보내는 중인 file 이 있을 때도 마찬가지다.
+	private final static long HIGH_WATER = 1024 * 1024;
+	private final static long LOW_WATER = 256 * 1024;
+	private final static long MAX_PENDING = 16 * 1024 * 1024;
+	private final static int MAX_GATHER = 16;
+	// 응답 header 는 모든 연결이 함께 쓰는 direct buffer 에 만든다.
+	private final static BufferPool headers = new BufferPool(1024, 4096);
 	public final static byte CR = (byte)'\r';
 	public final static byte LF = (byte)'\n';
 	public final static String GET = "GET";
@@ -24,195 +37,308 @@ public class Request implements Closeable {
 	public final static String DELETE = "DELETE";
 	public final static String TRACE = "TRACE";
 	public final static String CONNECT = "CONNECT";
-
-	protected Map<String, String> header;
+	
+	// 요청 처리 상태. 응답이 끝나야 같은 연결의 다음 요청(pipelining)을 처리한다.
+	private final static int IDLE = 0;
+	private final static int DISPATCHING = 1;
+	private final static int WAITING = 2;
+	private final static int DONE = 3;
 	
 	private final SocketChannel channel;
 	private final Listener listener;
-	private byte [] buffer;
-	private TimerTask task;
-	private String method;
-	private String uri;
-	private String version;
-	private int length;
-	private ByteArrayOutputStream body;
+	private final Parser parser = new Parser();
+	private final AtomicInteger state = new AtomicInteger(IDLE);
+	private SelectionKey key;
+	private Reactor reactor;
+	private ByteBuffer buffer = ByteBuffer.allocate(BUF_SIZE);
+	// 마지막으로 읽거나 쓴 시각. Reactor 의 Wheel 이 idle timeout 을 검사할 때 쓴다.
+	private volatile long lastActive;
+	private Body body;
+	// Transfer-Encoding: chunked 인 요청의 body 를 푸는 중
+	private Chunked chunked;
+	// 요청을 다 읽은 시각. 응답까지 걸린 시간을 잰다.
+	private long start;
 	private boolean isValidRequest = true;
-	private Boolean closed = false;
+	private volatile boolean streaming = false;
+	private volatile boolean closed = false;
+	// ByteBuffer 또는 Region
+	private final ArrayDeque<Object> output = new ArrayDeque<Object>();
+	private final ByteBuffer [] gather = new ByteBuffer [MAX_GATHER];
+	// output 에 들어 있는 headers 의 buffer. output 과 같은 순서다.
+	private final ArrayDeque<ByteBuffer> pooled = new ArrayDeque<ByteBuffer>();
+	private long pending = 0;
+	private int files = 0;
+	private boolean writing = false;
+	private boolean closing = false;
+	private boolean congested = false;
 	
 	public Request(SocketChannel channel, Listener listener) {
 		this.channel = channel;
 		this.listener = listener;
 		
-		setTimeout();
+		touch();
 	}
 	
-	public void parse(ByteBuffer src) throws IOException {
-		if (!this.isValidRequest) {
-			return;
+	void onRegister(SelectionKey key, Reactor reactor) {
+		this.key = key;
+		this.reactor = reactor;
+	}
+	
+	/**
+	 * 연결의 buffer 로 읽고 처리할 수 있는 요청을 처리한다. Listener 의 thread 에서만 호출된다.
+	 */
+	int read() throws IOException {
+		int bytes;
+		
+		if (isCongested() || !this.buffer.hasRemaining() && !grow(1)) {
+			// 응답을 기다리는 동안 buffer 가 가득 찼거나 client 가 응답을 받아가지 않으므로 당분간 읽지 않는다.
+			this.key.interestOps(this.key.interestOps() & ~SelectionKey.OP_READ);
+			
+			return 0;
 		}
 		
-		setTimeout();
+		if (this.buffer.position() == 0 && this.state.get() == IDLE && this.body != null && this.body.isDirect()) {
+			// 읽어 둔 것이 없으면 body 는 buffer 를 거치지 않고 바로 읽는다.
+			bytes = this.body.read(this.channel);
+		}
+		else {
+			bytes = this.channel.read(this.buffer);
+		}
 		
-		try {
-			if (this.body == null) {
-				String line;
-				
-				while ((line = readLine(src)) != null) {
-					if (parseHeader(line)) {
-						src.compact().flip();
-						
-						if (parseBody(src)) {
-							this.listener.onRequest(this);
-							
-							this.body = null;
-							this.header = null;
-						}
-						
-						break;
-					}
-				}
-			}
-			else {
-				parseBody(src);
-			}
-		} catch (HTTPException httpe) {
-			this.isValidRequest = false;
-			httpe.printStackTrace();
-			sendResponse(Response.getInstance(Response.Status.BADREQUEST)
-				.setResponseHeader("Connection", "Close"));
-		};
-	}
-	
-	public byte [] getRequestBody() {
-		return this.body.toByteArray();
+		if (bytes > 0) {
+			touch();
+			
+			this.listener.onReceive(bytes);
+			
+			process();
+		}
+		
+		return bytes;
 	}
 	
-	private void setTimeout() {
-		if (this.task != null) {
-			this.task.cancel();
+	public void parse(ByteBuffer src) throws IOException {
+		if (this.buffer.remaining() < src.remaining()) {
+			ByteBuffer buffer = ByteBuffer.allocate(this.buffer.position() + src.remaining());
+			
+			this.buffer.flip();
+			buffer.put(this.buffer);
+			
+			this.buffer = buffer;
 		}
 		
-		this.task = new TimerTask() {
-
-			@Override
-			public void run() {
-				timeout();
-			}
-		};
+		this.buffer.put(src);
 		
-		Calendar c = Calendar.getInstance();
+		touch();
 		
-		c.add(Calendar.HOUR, TIME_OUT);
-		this.listener.schedule(this.task, c.getTime());
+		process();
 	}
 	
-	private boolean parseBody(ByteBuffer src) throws HTTPException, IOException {
-		byte [] bytes = new byte[src.limit()];
-		int length;
+	private boolean grow(int size) {
+		int capacity = this.buffer.capacity();
 		
-		src.get(bytes);
-		this.body.write(bytes);
-		
-		length = this.body.size();
-		if (this.length == length) {
-			return true;
-		}
-		else if (this.length < length){
-			throw new HTTPException("Invalid content length.");
+		if (capacity >= MAX_BUF_SIZE) {
+			return false;
 		}
 		
-		return false;
+		ByteBuffer buffer = ByteBuffer.allocate(Math.min(MAX_BUF_SIZE, Math.max(capacity *2, this.buffer.position() + size)));
+		
+		this.buffer.flip();
+		buffer.put(this.buffer);
+		
+		this.buffer = buffer;
+		
+		return true;
 	}
 	
-	private boolean parseHeader(String line) throws HTTPException {
-		if (this.header == null) {
-			parseStartLine(line);
+	private void process() throws IOException {
+		if (!this.isValidRequest || this.streaming) {
+			this.buffer.clear();
+			
+			return;
 		}
-		else {
-			if ("".equals(line)) {			
-				String length = this.header.get("content-length");
+		
+		this.buffer.flip();
+		
+		try {
+			while (this.state.get() == IDLE && !isCongested()) {
+				if (this.body == null) {
+					if (!this.parser.parse(this.buffer)) {
+						break;
+					}
+					
+					String encoding = this.parser.getHeader("Transfer-Encoding");
+					long length = this.parser.getHeaderAsLong("Content-Length");
+					
+					if (encoding != null) {
+						// 둘 다 있으면 어느 쪽을 따를지 중간의 proxy 와 다를 수 있으므로 받지 않는다.
+						if (!"chunked".equalsIgnoreCase(encoding.trim()) || length != -1) {
+							throw new HTTPException("Unsupported transfer encoding.");
+						}
+						
+						this.chunked = new Chunked(this.listener.getMaxBodySize());
+						this.body = new Body();
+					}
+					else {
+						// 없으면(-1) body 가 없는 것이고 숫자가 아니면(-2) 잘못된 요청이다.
+						if (length == -2) {
+							throw new HTTPException("Invalid content length.");
+						}
+						
+						if (length > this.listener.getMaxBodySize()) {
+							throw new HTTPException(Response.Status.TOOLARGE, "Request body too large.");
+						}
+						
+						this.body = new Body(length < 0? 0: (int)length);
+					}
+				}
 				
-				try {
-					this.length = Integer.parseInt(length);
-				} catch (NumberFormatException nfe) {
-					this.length = 0;
+				if (!parseBody(this.buffer)) {
+					break;
 				}
 				
-				this.body = new ByteArrayOutputStream();
+				this.start = System.nanoTime();
+				this.state.set(DISPATCHING);
 				
-				return true;
-			}
-			else {
-				int index = line.indexOf(":");
+				if (!this.listener.serve(this)) {
+					Executor executor = this.listener.getExecutor();
+					
+					if (executor != null) {
+						this.state.set(WAITING);
+						
+						dispatch(executor);
+						
+						break;
+					}
+					
+					this.listener.onRequest(this);
+				}
 				
-				if (index == -1) {
-					throw new HTTPException("Invalid header");
+				if (this.state.compareAndSet(DISPATCHING, WAITING)) {
+					// 응답은 나중에(다른 thread 에서) 보내진다.
+					break;
 				}
 				
-				this.header.put(line.substring(0, index).toLowerCase(), line.substring(index + 1).trim());
+				finish();
 			}
+		} catch (HTTPException httpe) {
+			this.isValidRequest = false;
+			this.start = System.nanoTime();
+			httpe.printStackTrace();
+			// 응답을 보낸 뒤 연결을 닫는다.
+			sendResponse(Response.getInstance(httpe.getStatus())
+				.setResponseHeader("Connection", "Close"));
+		} finally {
+			this.buffer.compact();
 		}
-		
-		return false;
 	}
 	
-	private void parseStartLine(String line) throws HTTPException {
-		if (line.length() == 0) {
-			//규약에 의해 request-line 이전의 빈 라인은 무시한다.
-			return;
+	/**
+	 * executor 에서 onRequest 를 호출한다. 응답이 보내지면 complete 가 selector thread 에 다음 요청의 처리를 맡긴다.
+	 */
+	private void dispatch(Executor executor) {
+		try {
+			executor.execute(new Runnable() {
+
+				@Override
+				public void run() {
+					try {
+						listener.onRequest(Request.this);
+					} catch (RuntimeException re) {
+						re.printStackTrace();
+						
+						abort();
+					}
+				}
+			});
+		} catch (RejectedExecutionException ree) {
+			// 처리할 여유가 없으면 연결을 끊는다.
+			this.listener.closeRequest(this);
 		}
-		
-		String [] token = line.split(" ");
-		if (token.length != 3) {
-			throw new HTTPException("Invalid start line");
+	}
+	
+	private void finish() {
+		if (this.body != null) {
+			this.body.close();
+			
+			this.body = null;
 		}
 		
-		this.method = token[0];
-		this.uri = token[1];
-		this.version = token[2];
-		
-		this.header = new HashMap<String, String>();
+		this.chunked = null;
+		this.parser.reset();
+		this.state.set(IDLE);
 	}
 	
-	private String readLine(ByteBuffer src) throws IOException {
-		ByteArrayOutputStream baos = new ByteArrayOutputStream();
-		
-		if (this.buffer != null) {
-			baos.write(this.buffer);
-			
-			this.buffer = null;
+	/**
+	 * 응답이 늦게 끝난 경우 Listener 의 thread 에서 밀려 있던 다음 요청을 이어서 처리한다.
+	 */
+	void resume() {
+		if (this.closed || this.state.get() != DONE) {
+			return;
 		}
 		
-		byte b;
+		finish();
 		
-		while(src.hasRemaining()) {
-			b = src.get();
-			baos.write(b);
+		try {
+			process();
+		} catch (IOException ioe) {
+			this.listener.closeRequest(this);
 			
-			if (b == LF) {
-				String line = readLine(baos.toByteArray());
-				if (line != null) {
-					return line;
-				}
-			}
+			return;
 		}
 		
-		this.buffer = baos.toByteArray();
-		
-		return null;
+		if (this.key.isValid() && this.buffer.hasRemaining()) {
+			this.key.interestOps(this.key.interestOps() | SelectionKey.OP_READ);
+		}
 	}
 	
-	public static String readLine(byte [] src) throws IOException {
-		int length = src.length;
-		
-		if (length > 1 && src[length - 2] == CR) {
-			return new String(src, 0, length -2);
+	private void complete() {
+		if (!this.state.compareAndSet(DISPATCHING, DONE) && this.state.compareAndSet(WAITING, DONE)) {
+			this.reactor.resume(this);
+		}
+	}
+	
+	/**
+	 * 아래의 body 는 응답을 보내기 전까지만 유효하다.
+	 */
+	public byte [] getRequestBody() throws IOException {
+		return this.body.toByteArray();
+	}
+	
+	public ByteBuffer getRequestBodyBuffer() throws IOException {
+		return this.body.getBuffer();
+	}
+	
+	public InputStream getRequestBodyStream() throws IOException {
+		return this.body.getInputStream();
+	}
+	
+	public int getRequestBodyLength() {
+		return this.body.length();
+	}
+	
+	private void touch() {
+		this.lastActive = System.currentTimeMillis();
+	}
+	
+	long getLastActive() {
+		return this.lastActive;
+	}
+	
+	boolean isClosed() {
+		return this.closed;
+	}
+	
+	private boolean parseBody(ByteBuffer src) throws IOException, HTTPException {
+		if (this.chunked != null) {
+			return this.chunked.decode(src, this.body);
 		}
 		
-		return null;
+		this.body.write(src);
+		
+		return this.body.isComplete();
 	}
 	
-	private void timeout() {
+	void timeout() {
 		// reset
 		try {
 			this.channel.socket().setSoLinger(true, 0);
@@ -224,45 +350,343 @@ public class Request implements Closeable {
 	}
 	
 	public String getRequestMethod() {
-		return this.method;
+		return this.parser.getMethod();
 	}
 	
 	public String getRequestURI() {
-		return this.uri;
+		return this.parser.getURI();
 	}
 	
 	public String getRequestVersion() {
-		return this.version;
+		return this.parser.getVersion();
 	}
 	
 	public String getRequestHeader(String name) {
-		return this.header.get(name.toLowerCase());
+		return this.parser.getHeader(name);
 	}
 	
 	public boolean sendResponse(Response response) throws IOException {
-		synchronized(closed) {
-			if (closed) {
-				return false;
+		ByteBuffer [] message = response.buildBuffers(headers);
+		
+		if (!send(message, message[0].isDirect(), response.getRegion(), response.isClose())) {
+			return false;
+		}
+		
+		this.listener.onResponse(getRequestMethod(), response.getCode(), System.nanoTime() - this.start);
+		
+		complete();
+		
+		return true;
+	}
+
+	/**
+	 * 응답 header 만 보내고 이후 write 로 body 를 이어 보낸다. 연결이 닫힐 때까지 다른 요청은 받지 않는다.
+	 */
+	boolean sendStreamHeader(Response response) throws IOException {
+		this.streaming = true;
+		
+		if (!write(response.buildStreamHeader())) {
+			return false;
+		}
+		
+		this.listener.onResponse(getRequestMethod(), response.getCode(), System.nanoTime() - this.start);
+		
+		return true;
+	}
+	
+	/**
+	 * 길이를 모르는 응답의 header 를 보낸다. body 는 write 로 이어 보내고 endChunked 로 끝낸다.
+	 * sendStreamHeader 와 달리 응답이 끝나면 같은 연결의 다음 요청을 처리한다.
+	 */
+	boolean sendChunkedHeader(Response response) throws IOException {
+		return write(response.buildStreamHeader());
+	}
+	
+	/**
+	 * 마지막 조각을 보내고 응답을 끝낸다.
+	 */
+	boolean endChunked(Response response, ByteBuffer last) throws IOException {
+		if (!send(new ByteBuffer [] {last}, false, null, response.isClose())) {
+			return false;
+		}
+		
+		this.listener.onResponse(getRequestMethod(), response.getCode(), System.nanoTime() - this.start);
+		
+		complete();
+		
+		return true;
+	}
+	
+	/**
+	 * 보내지 못한 양이 HIGH_WATER 를 넘었으면 LOW_WATER 아래로 줄 때까지 기다린다.
+	 * Listener 의 thread 는 막으면 영영 보내지 못하므로 기다리지 않는다. 이때는 MAX_PENDING 이 한계다.
+	 * 받지 않는 client 가 thread 를 붙잡지 않도록 write timeout 이 지나면 연결을 끊고 SocketTimeoutException.
+	 */
+	void await() throws IOException {
+		long deadline, remaining;
+		
+		if (this.reactor.inLoop()) {
+			return;
+		}
+		
+		synchronized(this.output) {
+			deadline = System.currentTimeMillis() + this.listener.getWriteTimeout();
+			
+			while (!this.closed && this.pending >= HIGH_WATER) {
+				remaining = deadline - System.currentTimeMillis();
+				
+				if (remaining <= 0) {
+					abort();
+					
+					throw new SocketTimeoutException("write timed out");
+				}
+				
+				try {
+					this.output.wait(remaining);
+				} catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+					
+					throw new InterruptedIOException();
+				}
 			}
+		}
+	}
+	
+	/**
+	 * 응답을 끝까지 보낼 수 없을 때 Listener 의 thread 에서 연결을 끊는다.
+	 */
+	void abort() {
+		this.reactor.execute(new Runnable() {
 
-			ByteBuffer message = response.build();
+			@Override
+			public void run() {
+				listener.closeRequest(Request.this);
+			}
+		});
+	}
+	
+	boolean write(ByteBuffer... message) throws IOException {
+		return send(message, false, null, false);
+	}
+	
+	/**
+	 * 보낼 buffer 를 연결의 queue 에 넣고 바로 보낼 수 있는 만큼 보낸다.
+	 * 나머지는 Listener 의 thread 가 OP_WRITE 로 이어서 보내므로 어느 thread 도 막히지 않는다.
+	 * 보내지 못한 양이 MAX_PENDING 을 넘는 느린 client 는 연결을 끊는다.
+	 */
+	private boolean send(ByteBuffer [] message, boolean pooled, Region region, boolean close) throws IOException {
+		synchronized(this.output) {
+			if (this.closed || this.pending > MAX_PENDING) {
+				if (pooled) {
+					headers.release(message[0]);
+				}
+				
+				if (region != null) {
+					region.close();
+				}
+				
+				if (this.closed) {
+					return false;
+				}
+				
+				abort();
+				
+				return false;
+			}
+			
+			if (pooled) {
+				this.pooled.add(message[0]);
+			}
+			
+			for (ByteBuffer buffer : message) {
+				if (buffer.hasRemaining()) {
+					this.output.add(buffer);
+					
+					this.pending += buffer.remaining();
+				}
+			}
 			
-			while(message.remaining() > 0) {			
-				this.channel.write(message);
+			if (region != null) {
+				if (region.remaining() > 0) {
+					this.output.add(region);
+					
+					this.files++;
+				}
+				else {
+					region.close();
+				}
+			}
+			
+			this.closing |= close;
+			
+			if (!this.writing) {
+				flush();
+				
+				if (!this.output.isEmpty() || this.closing) {
+					this.writing = true;
+					
+					this.reactor.execute(new Runnable() {
+
+						@Override
+						public void run() {
+							onWrite();
+						}
+					});
+				}
 			}
 		}
 		
+		touch();
+		
 		return true;
 	}
-
+	
+	private void flush() throws IOException {
+		ByteBuffer [] buffers = this.gather;
+		Iterator<Object> iterator;
+		Object next;
+		Region region;
+		int count;
+		long bytes;
+		
+		while (!this.output.isEmpty()) {
+			if (this.output.peek() instanceof Region) {
+				region = (Region)this.output.peek();
+				bytes = region.transferTo(this.channel);
+				
+				this.listener.onSend(bytes);
+				
+				if (region.remaining() > 0) {
+					break;
+				}
+				
+				region.close();
+				
+				this.output.poll();
+				this.files--;
+				
+				continue;
+			}
+			
+			iterator = this.output.iterator();
+			
+			for (count = 0; count < buffers.length && iterator.hasNext(); count++) {
+				next = iterator.next();
+				
+				if (next instanceof Region) {
+					break;
+				}
+				
+				buffers[count] = (ByteBuffer)next;
+			}
+			
+			bytes = this.channel.write(buffers, 0, count);
+			
+			this.pending -= bytes;
+			
+			this.listener.onSend(bytes);
+			
+			while (!this.output.isEmpty() && this.output.peek() instanceof ByteBuffer && !((ByteBuffer)this.output.peek()).hasRemaining()) {
+				if (this.output.poll() == this.pooled.peek()) {
+					headers.release(this.pooled.poll());
+				}
+			}
+			
+			for (int i=0; i<count; i++) {
+				buffers[i] = null;
+			}
+			
+			if (bytes == 0) {
+				break;
+			}
+		}
+	}
+	
+	/**
+	 * Listener 의 thread 에서 queue 에 남은 응답을 보낸다.
+	 */
+	void onWrite() {
+		boolean drained;
+		
+		try {
+			synchronized(this.output) {
+				if (this.closed) {
+					return;
+				}
+				
+				flush();
+				
+				if (this.pending < LOW_WATER) {
+					this.output.notifyAll();
+				}
+				
+				if (this.output.isEmpty()) {
+					this.writing = false;
+					
+					this.key.interestOps(this.key.interestOps() & ~SelectionKey.OP_WRITE);
+					
+					if (this.closing) {
+						this.listener.closeRequest(this);
+						
+						return;
+					}
+				}
+				else {
+					this.key.interestOps(this.key.interestOps() | SelectionKey.OP_WRITE);
+				}
+				
+				drained = this.pending < LOW_WATER && this.files == 0;
+			}
+			
+			if (drained && this.congested) {
+				this.congested = false;
+				
+				process();
+				
+				if (this.key.isValid() && this.buffer.hasRemaining()) {
+					this.key.interestOps(this.key.interestOps() | SelectionKey.OP_READ);
+				}
+			}
+		} catch (IOException ioe) {
+			this.listener.closeRequest(this);
+		}
+	}
+	
+	private boolean isCongested() {
+		synchronized(this.output) {
+			if (this.pending >= HIGH_WATER || this.files > 0) {
+				this.congested = true;
+			}
+		}
+		
+		return this.congested;
+	}
+	
 	@Override
 	public void close() {
-		synchronized(closed) {
-			if (closed) {
+		synchronized(this.output) {
+			if (this.closed) {
 				return;
 			}
 			
-			closed = true;
+			this.closed = true;
+			
+			for (Object next : this.output) {
+				if (next instanceof Region) {
+					((Region)next).close();
+				}
+			}
+			
+			for (ByteBuffer buffer : this.pooled) {
+				headers.release(buffer);
+			}
+			
+			this.pooled.clear();
+			this.output.clear();
+			this.pending = 0;
+			this.files = 0;
+			
+			this.output.notifyAll();
 		}
 
 		try {
@@ -271,8 +695,8 @@ public class Request implements Closeable {
 			e.printStackTrace();
 		}
 		
-		if (this.task != null) {
-			this.task.cancel();
+		if (this.body != null) {
+			this.body.close();
 		}
 	}
 	
@@ -2,182 +2,437 @@ package com.itahm.http;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.RandomAccessFile;
 import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class Response {
 
 	public final static String CRLF = "\r\n";
 	public final static String FIELD = "%s: %s"+ CRLF;
+	// 확장자별 Content-type. probeContentType 은 느리므로 한 번만 묻는다. 알 수 없으면 "".
+	private final static Map<String, String> types = new ConcurrentHashMap<String, String>();
+	
+	private final static byte [] EMPTY = new byte [0];
+	private final static byte [] CONTENT_LENGTH = "Content-Length: ".getBytes(StandardCharsets.US_ASCII);
+	// 자주 쓰는 header 의 "name: " 은 미리 encode 해 둔다.
+	private final static Map<String, byte []> FIELDS = new HashMap<String, byte []>();
+	
+	static {
+		for (String name : new String [] {"Content-Type", "Content-type", "Content-Encoding", "Content-Range", "Cache-Control",
+			"ETag", "Last-Modified", "Vary", "Accept-Ranges", "Allow", "Connection", "Transfer-Encoding",
+			"Access-Control-Allow-Origin", "Access-Control-Allow-Credentials"}) {
+			FIELDS.put(name, (name +": ").getBytes(StandardCharsets.US_ASCII));
+		}
+	}
 	
 	private final Map<String, String> header = new HashMap<String, String>();
-	private String startLine;
+	private final Status status;
 	private byte [] body;
+	// body 대신 보낼 file 의 구간. file 응답의 body 는 비어 있다.
+	private FileChannel file;
+	private long offset;
+	private long length;
 	
 	public enum Status {
-		OK, BADREQUEST, UNAUTHORIZED, NOTFOUND, NOTALLOWED, VERSIONNOTSUP, CONFLICT
+		OK(200, "OK"),
+		PARTIALCONTENT(206, "Partial Content"),
+		NOTMODIFIED(304, "Not Modified"),
+		BADREQUEST(400, "Bad request"),
+		UNAUTHORIZED(401, "Unauthorized"),
+		NOTFOUND(404, "Not found"),
+		NOTALLOWED(405, "Method Not Allowed"),
+		CONFLICT(409, "Conflict"),
+		TOOLARGE(413, "Payload Too Large"),
+		RANGENOTSATISFIABLE(416, "Range Not Satisfiable"),
+		VERSIONNOTSUP(505, "HTTP Version Not Supported");
+		
+		private final int code;
+		// 미리 encode 해 둔 status line 과, body 가 없을 때 대신 보낼 page
+		private final byte [] line;
+		private final byte [] page;
+		
+		private Status(int code, String reason) {
+			this.code = code;
+			this.line = String.format("HTTP/1.1 %d %s"+ CRLF, code, reason).getBytes(StandardCharsets.US_ASCII);
+			this.page = code < 400 || code == 416? null:
+				String.format("<!DOCTYPE html><html><head><meta charset=\"UTF-8\"></head><body><h1>HTTP1.1 %d %s</h1></body></html>", code, reason)
+					.getBytes(StandardCharsets.UTF_8);
+		}
 	};
 	
 	private Response(Status status, byte [] bytes) {
-		int code = 200;
-		String reason = "OK";
+		this.status = status;
+		
+		if (status == Status.NOTMODIFIED) {
+			this.body = EMPTY;
+		}
+		else if (bytes != null && bytes.length == 0 && status.page != null) {
+			this.body = status.page;
+		}
+		else {
+			this.body = bytes;
+		}
+		
+		if (status == Status.NOTALLOWED) {
+			setResponseHeader("Allow", "GET");
+		}
+	}
+	
+	public static Response getInstance(Status status) {
+		return new Response(status, EMPTY);
+	}
+	
+	public static Response getInstance(Status status, byte [] body) {
+		return new Response(status, body);
+	}
+	
+	public static Response getInstance(Status status, String body) {
+		try {
+			return new Response(status, body.getBytes(StandardCharsets.UTF_8.name()));
+		} catch (UnsupportedEncodingException e) {
+			return null;
+		}
+	}
+	
+	public static Response getInstance(Status status, File body) {
+		return getInstance(status, body, null);
+	}
+	
+	/**
+	 * file 은 읽어 두지 않고 응답을 보낼 때 transferTo 로 보낸다.
+	 * status 가 OK 이고 range(Range header) 가 하나의 구간이면 206, 범위를 벗어나면 416 으로 응답한다.
+	 * file 이 없거나 읽을 수 없으면 null.
+	 */
+	public static Response getInstance(Status status, File body, String range) {
+		FileChannel fc = null;
 		
-		body = bytes;
+		if (!body.isFile()) {
+			return null;
+		}
 		
-		switch (status) {
-		case BADREQUEST:
-			code = 400;
-			reason = "Bad request";
+		try {
+			fc = FileChannel.open(body.toPath(), StandardOpenOption.READ);
+			
+			long size = fc.size();
+			long [] bounds = status == Status.OK && range != null? parseRange(range, size): null;
+			Response response;
 			
-			try {
-				bytes = "<!DOCTYPE html><html><head><meta charset=\"UTF-8\"></head><body><h1>HTTP1.1 400 Bad request</h1></body></html>"
-					.getBytes(StandardCharsets.UTF_8.name());
-			} catch (UnsupportedEncodingException e) {
+			if (bounds == null) {
+				response = new Response(status, EMPTY)
+					.setResponseHeader("Accept-Ranges", "bytes");
+				
+				bounds = new long [] {0, size};
 			}
+			else if (bounds[0] >= bounds[1]) {
+				fc.close();
+				
+				return new Response(Status.RANGENOTSATISFIABLE, EMPTY)
+					.setResponseHeader("Content-Range", "bytes */"+ size);
+			}
+			else {
+				response = new Response(Status.PARTIALCONTENT, EMPTY)
+					.setResponseHeader("Content-Range", String.format("bytes %d-%d/%d", bounds[0], bounds[1] -1, size));
+			}
+			
+			response.file = fc;
+			response.offset = bounds[0];
+			response.length = bounds[1] - bounds[0];
 			
-			break;
-		case NOTFOUND:
-			code = 404;
-			reason = "Not found";
+			String type = getContentType(body);
 			
-			try {
-				bytes = "<!DOCTYPE html><html><head><meta charset=\"UTF-8\"></head><body><h1>HTTP1.1 404 Not found</h1></body></html>"
-					.getBytes(StandardCharsets.UTF_8.name());
-			} catch (UnsupportedEncodingException e) {
+			if (type != null) {
+				response.setResponseHeader("Content-type", type);
 			}
 			
-			body = bytes;
+			return response;
+		} catch (IOException ioe) {
+			if (fc != null) {
+				try {
+					fc.close();
+				} catch (IOException ioe2) {
+				}
+			}
 			
-			break;
-		case NOTALLOWED:
-			code = 405;
-			reason = "Method Not Allowed";
+			return null;
+		}
+	}
+	
+	/**
+	 * "bytes=first-last", "bytes=first-", "bytes=-suffix" 하나만 지원한다.
+	 * 지원하지 않거나 잘못된 형식이면 null 로 전체를 보내고, 만족할 수 없는 범위는 빈 구간을 돌려준다.
+	 * 돌려주는 구간은 [start, end).
+	 */
+	static long [] parseRange(String range, long size) {
+		range = range.trim();
 		
-			try {
-				bytes = "<!DOCTYPE html><html><head><meta charset=\"UTF-8\"></head><body><h1>HTTP1.1 405 Method Not Allowed</h1></body></html>"
-					.getBytes(StandardCharsets.UTF_8.name());
-			} catch (UnsupportedEncodingException e) {
+		if (!range.regionMatches(true, 0, "bytes=", 0, 6) || range.indexOf(',') >= 0) {
+			return null;
+		}
+		
+		int dash = range.indexOf('-', 6);
+		
+		if (dash < 0) {
+			return null;
+		}
+		
+		String first = range.substring(6, dash).trim();
+		String last = range.substring(dash +1).trim();
+		long start, end;
+		
+		try {
+			if (first.isEmpty()) {
+				long suffix = Long.parseLong(last);
+				
+				if (suffix < 0) {
+					return null;
+				}
+				
+				if (suffix == 0 || size == 0) {
+					return new long [] {0, 0};
+				}
+				
+				start = Math.max(0, size - suffix);
+				end = size;
 			}
+			else {
+				start = Long.parseLong(first);
+				end = last.isEmpty()? size: Long.parseLong(last) +1;
+				
+				if (start < 0 || end <= start && !last.isEmpty()) {
+					return null;
+				}
+				
+				if (start >= size) {
+					return new long [] {0, 0};
+				}
+				
+				end = Math.min(end, size);
+			}
+		} catch (NumberFormatException nfe) {
+			return null;
+		}
+		
+		return new long [] {start, end};
+	}
+	
+	static String getContentType(File file) throws IOException {
+		String name = file.getName();
+		int index = name.lastIndexOf('.');
+		String extension = index < 0? "": name.substring(index +1).toLowerCase(Locale.US);
+		String type = types.get(extension);
+		
+		if (type == null) {
+			type = Files.probeContentType(file.toPath());
 			
-			setResponseHeader("Allow", "GET");
+			if (type == null) {
+				type = "";
+			}
 			
-			break;
-		case UNAUTHORIZED:
-			code = 401;
-			reason = "Unauthorized";
+			types.put(extension, type);
+		}
+		
+		return type.isEmpty()? null: type;
+	}
+	
+	public Status getStatus() {
+		return this.status;
+	}
+	
+	public int getCode() {
+		return this.status.code;
+	}
+	
+	public Response setResponseHeader(String name, String value) {
+		this.header.put(name, value);
+		
+		return this;
+	}
+	
+	public ByteBuffer build() throws IOException {
+		boolean length = this.status != Status.NOTMODIFIED;
+		ByteBuffer message;
+		
+		if (this.body == null) {
+			throw new IOException("malformed http request!");
+		}
+		
+		if (this.file != null) {
+			// file 응답은 이어 붙이려면 읽어야 한다. Request 는 buildBuffers 와 getRegion 으로 읽지 않고 보낸다.
+			long size = getHeaderSize(length) + this.length;
+			int header;
 			
-			try {
-				bytes = "<!DOCTYPE html><html><head><meta charset=\"UTF-8\"></head><body><h1>HTTP1.1 401 Unauthorized</h1></body></html>"
-					.getBytes(StandardCharsets.UTF_8.name());
-			} catch (UnsupportedEncodingException e) {
+			if (size > Integer.MAX_VALUE) {
+				throw new IOException("file too large to build");
 			}
 			
-			break;
-		case VERSIONNOTSUP:
-			code = 505;
-			reason = "HTTP Version Not Supported";
+			message = ByteBuffer.allocate((int)size);
 			
-			try {
-				bytes = "<!DOCTYPE html><html><head><meta charset=\"UTF-8\"></head><body><h1>HTTP1.1 505 HTTP Version Not Supported</h1></body></html>"
-					.getBytes(StandardCharsets.UTF_8.name());
-			} catch (UnsupportedEncodingException e) {
-			}
+			putHeader(message, length);
 			
-			break;
-		case CONFLICT:
-			code = 409;
-			reason = "Conflict";
+			header = message.position();
 			
-			try {
-				bytes = "<!DOCTYPE html><html><head><meta charset=\"UTF-8\"></head><body><h1>HTTP1.1 409 Conflict</h1></body></html>"
-					.getBytes(StandardCharsets.UTF_8.name());
-			} catch (UnsupportedEncodingException e) {
+			message.limit(header + (int)this.length);
+			
+			try (FileChannel fc = this.file) {
+				while (message.hasRemaining()) {
+					if (fc.read(message, this.offset + message.position() - header) < 0) {
+						throw new IOException("file truncated");
+					}
+				}
+			} finally {
+				this.file = null;
 			}
+		}
+		else {
+			message = ByteBuffer.allocate(getHeaderSize(length) + this.body.length);
 			
-			break;
-		case OK:
+			putHeader(message, length);
+			
+			message.put(this.body);
 		}
 		
-		startLine = String.format("HTTP/1.1 %d %s" +CRLF, code, reason);
+		message.flip();
+		
+		return message;
 	}
 	
-	public static Response getInstance(Status status) {
-		return new Response(status, new byte [0]);
+	/**
+	 * header 와 body 를 이어 붙이지 않고 gathering write 로 함께 보낸다.
+	 * header 가 pool 의 buffer 에 들어가면 pool 의 direct buffer 에 쓰며, 보낸 쪽이 pool 에 돌려준다.
+	 */
+	ByteBuffer [] buildBuffers(BufferPool pool) throws IOException {
+		boolean length = this.status != Status.NOTMODIFIED;
+		int size = getHeaderSize(length);
+		ByteBuffer header;
+		
+		if (this.body == null) {
+			throw new IOException("malformed http request!");
+		}
+		
+		header = pool != null && size <= pool.getSize()? pool.acquire(): ByteBuffer.allocate(size);
+		
+		putHeader(header, length);
+		
+		header.flip();
+		
+		return new ByteBuffer [] {header, ByteBuffer.wrap(this.body)};
 	}
 	
-	public static Response getInstance(Status status, String body) {
-		try {
-			return new Response(status, body.getBytes(StandardCharsets.UTF_8.name()));
-		} catch (UnsupportedEncodingException e) {
+	/**
+	 * header 뒤에 보낼 file 의 구간. 한 번만 넘겨주며 닫는 것은 받은 쪽이 한다.
+	 */
+	Region getRegion() {
+		if (this.file == null) {
 			return null;
 		}
+		
+		Region region = new Region(this.file, this.offset, this.length);
+		
+		this.file = null;
+		
+		return region;
 	}
 	
-	public static Response getInstance(Status status, File body) {
-		try (RandomAccessFile raf = new RandomAccessFile(body, "r")) {
-			FileChannel fc = raf.getChannel();
-			int size = (int)fc.size();
-			ByteBuffer buffer = ByteBuffer.allocate(size);
-			byte [] bytes;
-			
-			fc.read(buffer);
-			
-			buffer.flip();
-			
-			bytes = new byte [buffer.remaining()];
-			
-			buffer.get(bytes);
-			
-			return new Response(status, bytes).setResponseHeader("Content-type", Files.probeContentType(body.toPath()));
-		} catch (IOException ioe) {
-			return null;
+	boolean isClose() {
+		for (Map.Entry<String, String> entry : this.header.entrySet()) {
+			if ("connection".equalsIgnoreCase(entry.getKey()) && "close".equalsIgnoreCase(entry.getValue())) {
+				return true;
+			}
 		}
+		
+		return false;
 	}
-
-	public Response setResponseHeader(String name, String value) {
-		this.header.put(name, value);
+	
+	/**
+	 * body 의 길이를 알 수 없는 응답(연결이 닫힐 때까지 이어지는)의 header.
+	 */
+	ByteBuffer buildStreamHeader() throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(getHeaderSize(false));
 		
-		return this;
+		putHeader(header, false);
+		
+		header.flip();
+		
+		return header;
 	}
 	
-	public ByteBuffer build() throws IOException {
-		if (this.startLine == null || this.body == null) {
-			throw new IOException("malformed http request!");
+	/**
+	 * putHeader 가 쓸 크기의 상한.
+	 */
+	private int getHeaderSize(boolean length) {
+		int size = this.status.line.length + 2;
+		
+		if (length) {
+			size += CONTENT_LENGTH.length + 19 + 2;
 		}
 		
-		StringBuilder sb = new StringBuilder();
-		Iterator<String> iterator;		
-		String key;
-		byte [] header;
-		byte [] message;
+		for (Map.Entry<String, String> entry : this.header.entrySet()) {
+			size += entry.getKey().length() + String.valueOf(entry.getValue()).length() + 4;
+		}
 		
-		sb.append(this.startLine);
-		sb.append(String.format(FIELD, "Content-Length", String.valueOf(this.body.length)));
+		return size;
+	}
+	
+	private void putHeader(ByteBuffer dst, boolean length) {
+		byte [] field;
+		
+		dst.put(this.status.line);
 		
-		iterator = this.header.keySet().iterator();
-		while(iterator.hasNext()) {
-			key = iterator.next();
+		if (length) {
+			dst.put(CONTENT_LENGTH);
+			
+			putDecimal(dst, this.body.length + this.length);
 			
-			sb.append(String.format(FIELD, key, this.header.get(key)));
+			dst.put(Request.CR).put(Request.LF);
 		}
 		
-		sb.append(CRLF);
-		
-		header = sb.toString().getBytes(StandardCharsets.US_ASCII.name());
+		for (Map.Entry<String, String> entry : this.header.entrySet()) {
+			field = FIELDS.get(entry.getKey());
+			
+			if (field == null) {
+				putASCII(dst, entry.getKey());
+				
+				dst.put((byte)':').put((byte)' ');
+			}
+			else {
+				dst.put(field);
+			}
+			
+			putASCII(dst, String.valueOf(entry.getValue()));
+			
+			dst.put(Request.CR).put(Request.LF);
+		}
 		
-		message = new byte [header.length + this.body.length];
+		dst.put(Request.CR).put(Request.LF);
+	}
+	
+	private static void putDecimal(ByteBuffer dst, long value) {
+		if (value >= 10) {
+			putDecimal(dst, value / 10);
+		}
 		
-		System.arraycopy(header, 0, message, 0, header.length);
-		System.arraycopy(this.body, 0, message, header.length, this.body.length);
+		dst.put((byte)('0' + value % 10));
+	}
+	
+	/**
+	 * US-ASCII 로 encode 한다. 다른 문자는 '?'.
+	 */
+	private static void putASCII(ByteBuffer dst, String s) {
+		char c;
 		
-		return ByteBuffer.wrap(message);
+		for (int i=0, length=s.length(); i<length; i++) {
+			c = s.charAt(i);
+			
+			dst.put(c < 0x80? (byte)c: (byte)'?');
+		}
 	}
 	
 }
@@ -0,0 +1,78 @@
+package com.itahm.http;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 연결의 idle timeout 을 검사하는 hashed wheel.
+ * 연결마다 task 를 만들지 않고 tick 마다 한 칸의 연결들의 마지막 활동 시각만 확인한다.
+ * 아직 시간이 남은 연결은 만료될 칸으로 옮긴다. Reactor 의 thread 에서만 쓰인다.
+ */
+class Wheel {
+
+	private final static int SIZE = 512;
+	
+	private final long tick;
+	private final List<List<Request>> buckets = new ArrayList<List<Request>>(SIZE);
+	private int cursor = 0;
+	// cursor 칸을 검사할 시각
+	private long time;
+	
+	Wheel(long tick) {
+		this.tick = tick;
+		this.time = System.currentTimeMillis() + tick;
+		
+		for (int i=0; i<SIZE; i++) {
+			this.buckets.add(new ArrayList<Request>());
+		}
+	}
+	
+	void add(Request request, long deadline) {
+		long ticks = (deadline - this.time) / this.tick;
+		
+		// 검사중인 칸에는 넣지 않는다. wheel 한 바퀴보다 먼 deadline 은 한 바퀴 뒤에 다시 검사한다.
+		ticks = Math.max(1, Math.min(SIZE - 1, ticks));
+		
+		this.buckets.get((int)((this.cursor + ticks) % SIZE)).add(request);
+	}
+	
+	/**
+	 * 다음 tick 까지 남은 시간.
+	 */
+	long next(long now) {
+		return Math.max(1, this.time - now);
+	}
+	
+	void expire(long now, long timeout) {
+		List<Request> bucket;
+		Request request;
+		long deadline;
+		
+		while (this.time <= now) {
+			bucket = this.buckets.get(this.cursor);
+			
+			for (int i=0, _i=bucket.size(); i<_i; i++) {
+				request = bucket.get(i);
+				
+				if (request.isClosed()) {
+					continue;
+				}
+				
+				deadline = request.getLastActive() + timeout;
+				
+				if (deadline <= now) {
+					request.timeout();
+				}
+				else {
+					add(request, deadline);
+				}
+			}
+			
+			bucket.clear();
+			
+			this.cursor = (this.cursor + 1) % SIZE;
+			this.time += this.tick;
+		}
+	}
+	
+}
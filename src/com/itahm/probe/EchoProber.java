@@ -0,0 +1,57 @@
+package com.itahm.probe;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * InetAddress.isReachable 를 이용하는 prober.
+ * 권한이 있으면 ICMP echo, 없으면 TCP echo(7) 를 사용하며 probe 하나가 thread 하나를 점유한다.
+ */
+public class EchoProber implements Prober {
+
+	private final ThreadPoolExecutor workers;
+	private final int concurrency;
+	
+	public EchoProber(int concurrency) {
+		this.concurrency = concurrency;
+		this.workers = new ThreadPoolExecutor(concurrency, concurrency, 60, TimeUnit.SECONDS,
+			new LinkedBlockingQueue<Runnable>(), new ProbeEngine.Factory("echo-prober"));
+		this.workers.allowCoreThreadTimeOut(true);
+	}
+	
+	@Override
+	public void probe(final InetAddress target, final int timeout, final Callback callback) {
+		this.workers.execute(new Runnable() {
+
+			@Override
+			public void run() {
+				long start = System.nanoTime();
+				boolean reachable = false;
+				
+				try {
+					reachable = target.isReachable(timeout);
+				} catch (IOException ioe) {
+				}
+				
+				callback.onResult(reachable, reachable? TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start): -1);
+			}
+		});
+	}
+	
+	/**
+	 * thread 수만큼. 나머지는 pool 의 queue 에서 기다린다.
+	 */
+	@Override
+	public int getCapacity() {
+		return this.concurrency;
+	}
+	
+	@Override
+	public void close() {
+		this.workers.shutdownNow();
+	}
+	
+}
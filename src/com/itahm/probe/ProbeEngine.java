@@ -0,0 +1,256 @@
+package com.itahm.probe;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+public class ProbeEngine implements Closeable {
+
+	public interface Handler {
+		public void onProbe(Target target, boolean reachable, long rtt);
+		public void onLate(Target target, long lag);
+	}
+	
+	private final Handler handler;
+	private final Prober prober;
+	private final long interval;
+	private final int timeout;
+	private final ScheduledThreadPoolExecutor scheduler;
+	private final Semaphore inflight;
+	private final Set<Target> targets = ConcurrentHashMap.newKeySet();
+	private final LongAdder probes = new LongAdder();
+	private final LongAdder late = new LongAdder();
+	
+	public ProbeEngine(Handler handler, Prober prober, long interval, int timeout, int concurrency) {
+		this.handler = handler;
+		this.prober = prober;
+		this.interval = interval;
+		this.timeout = timeout;
+		// prober 가 동시에 처리할 수 있는 것보다 많이 내보내면 prober 안에서 줄을 서므로 늦은 주기를 알 수 없다.
+		this.inflight = new Semaphore(Math.min(concurrency, prober.getCapacity()));
+		
+		this.scheduler = new ScheduledThreadPoolExecutor(1, new Factory("probe-scheduler"));
+		this.scheduler.setRemoveOnCancelPolicy(true);
+	}
+	
+	public Target add(String id, InetAddress address, Object attachment) {
+		Target target = new Target(id, address, attachment);
+		// 모든 대상이 같은 순간에 몰리지 않도록 interval 안에서 시작 시점을 분산한다.
+		long delay = ThreadLocalRandom.current().nextLong(this.interval);
+		
+		target.due = System.currentTimeMillis() + delay;
+		target.started = target.due - this.interval;
+		target.future = this.scheduler.scheduleAtFixedRate(new Tick(target), delay, this.interval, TimeUnit.MILLISECONDS);
+		
+		this.targets.add(target);
+		
+		return target;
+	}
+	
+	public void remove(Target target) {
+		if (this.targets.remove(target)) {
+			target.future.cancel(false);
+		}
+	}
+	
+	public void clear() {
+		for (Target target : this.targets) {
+			remove(target);
+		}
+	}
+	
+	public int getTargetSize() {
+		return this.targets.size();
+	}
+	
+	public long getProbeCount() {
+		return this.probes.sum();
+	}
+	
+	public long getLateCount() {
+		return this.late.sum();
+	}
+	
+	private void onTick(Target target) {
+		long now = System.currentTimeMillis();
+		long due = target.due;
+		long lag;
+		
+		target.due += this.interval;
+		
+		if (!target.busy.compareAndSet(false, true)) {
+			// 이전 probe 가 아직 끝나지 않았으므로 이번 주기는 건너뛴다.
+			// timeout 이 interval 보다 길면 응답이 없는 대상은 늘 이렇게 되므로 지연이 아니다.
+			// timeout 이 지나고도 한 주기가 더 지나도록 끝나지 않은 경우만 그 probe 의 예정 시각부터 지연으로 본다.
+			lag = now - target.started;
+			
+			if (lag >= this.timeout + this.interval) {
+				target.lag = lag;
+				
+				onLate(target, lag);
+			}
+			
+			return;
+		}
+		
+		if (!this.inflight.tryAcquire()) {
+			// 동시 probe 한도에 도달. 마지막 probe 다음 주기부터 기다린 시간이 지연이다.
+			target.busy.set(false);
+			
+			lag = now - (target.started + this.interval);
+			target.lag = lag;
+			
+			onLate(target, lag);
+			
+			return;
+		}
+		
+		lag = now - due;
+		
+		target.started = due;
+		target.lag = lag;
+		
+		if (lag > this.interval) {
+			onLate(target, lag);
+		}
+		else {
+			target.late = false;
+		}
+		
+		this.prober.probe(target.address, this.timeout, new Probe(target));
+	}
+	
+	private void onLate(Target target, long lag) {
+		this.late.increment();
+		
+		if (!target.late) {
+			target.late = true;
+			
+			this.handler.onLate(target, lag);
+		}
+	}
+	
+	@Override
+	public void close() throws IOException {
+		this.scheduler.shutdownNow();
+		this.prober.close();
+		this.targets.clear();
+	}
+	
+	public static class Target {
+		
+		private final String id;
+		private final InetAddress address;
+		private volatile Object attachment;
+		private final AtomicBoolean busy = new AtomicBoolean(false);
+		private ScheduledFuture<?> future;
+		private long due;
+		// 마지막으로 시작한 probe 의 예정 시각
+		private volatile long started;
+		private volatile boolean late = false;
+		private volatile long lag = 0;
+		
+		private Target(String id, InetAddress address, Object attachment) {
+			this.id = id;
+			this.address = address;
+			this.attachment = attachment;
+		}
+		
+		public String getID() {
+			return this.id;
+		}
+		
+		public InetAddress getAddress() {
+			return this.address;
+		}
+		
+		public Object attachment() {
+			return this.attachment;
+		}
+		
+		/**
+		 * 마지막 주기가 예정보다 늦게 시작한 시간(ms).
+		 */
+		public long getLag() {
+			return this.lag;
+		}
+		
+		/**
+		 * 일정을 바꾸지 않고 attachment 만 바꾼다.
+		 */
+		public void attach(Object attachment) {
+			this.attachment = attachment;
+		}
+		
+	}
+	
+	class Tick implements Runnable {
+		
+		private final Target target;
+		
+		public Tick(Target target) {
+			this.target = target;
+		}
+		
+		@Override
+		public void run() {
+			onTick(this.target);
+		}
+		
+	}
+	
+	class Probe implements Prober.Callback {
+		
+		private final Target target;
+		
+		public Probe(Target target) {
+			this.target = target;
+		}
+		
+		@Override
+		public void onResult(boolean reachable, long rtt) {
+			try {
+				handler.onProbe(this.target, reachable, rtt);
+				
+				probes.increment();
+			} finally {
+				inflight.release();
+				
+				this.target.busy.set(false);
+			}
+		}
+		
+	}
+	
+	static class Factory implements ThreadFactory {
+		
+		private final String name;
+		private final AtomicInteger count = new AtomicInteger();
+		
+		public Factory(String name) {
+			this.name = name;
+		}
+		
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, this.name +"-"+ this.count.incrementAndGet());
+			
+			thread.setDaemon(true);
+			
+			return thread;
+		}
+		
+	}
+	
+}
@@ -0,0 +1,24 @@
+package com.itahm.probe;
+
+import java.io.Closeable;
+import java.net.InetAddress;
+
+public interface Prober extends Closeable {
+
+	public interface Callback {
+		public void onResult(boolean reachable, long rtt);
+	}
+	
+	/**
+	 * 결과는 prober 의 thread 에서 callback 으로 전달되므로 callback 은 짧게 끝나야 한다.
+	 * rtt 는 milliseconds, 응답이 없으면 -1.
+	 */
+	public void probe(InetAddress target, int timeout, Callback callback);
+	
+	/**
+	 * 동시에 진행할 수 있는 probe 의 수. 넘치는 probe 는 prober 안에서 기다리며 ProbeEngine 이 지연으로 보지 못하므로
+	 * ProbeEngine 은 이보다 많이 내보내지 않는다.
+	 */
+	public int getCapacity();
+	
+}
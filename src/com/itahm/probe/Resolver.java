@@ -0,0 +1,207 @@
+package com.itahm.probe;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 이름을 pool 에서 병렬로 찾아 ttl 동안 기억한다. 찾지 못한 결과도 negative ttl 동안 기억한다.
+ * resolve 한 이름은 cancel 할 때까지 ttl 이 지날 때마다 다시 찾고, 주소가 바뀌면 callback 에 알린다.
+ */
+public class Resolver implements Closeable {
+
+	public interface Lookup {
+		public InetAddress lookup(String host) throws UnknownHostException;
+	}
+	
+	public interface Callback {
+		/**
+		 * @param address 찾지 못했으면 null
+		 */
+		public void onResolve(String host, InetAddress address);
+	}
+	
+	public final static Lookup SYSTEM = new Lookup() {
+
+		@Override
+		public InetAddress lookup(String host) throws UnknownHostException {
+			return InetAddress.getByName(host);
+		}
+	};
+	
+	private final Lookup lookup;
+	private final long ttl;
+	private final long negative;
+	private final ScheduledThreadPoolExecutor executor;
+	private final Map<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+	
+	public Resolver(Lookup lookup, long ttl, long negative, int concurrency) {
+		this.lookup = lookup;
+		this.ttl = ttl;
+		this.negative = negative;
+		
+		this.executor = new ScheduledThreadPoolExecutor(concurrency, new ProbeEngine.Factory("resolver"));
+		this.executor.setRemoveOnCancelPolicy(true);
+	}
+	
+	/**
+	 * 기억하고 있는 결과가 있으면 호출한 thread 에서 바로 알리고, 없으면 pool 에서 찾은 뒤 알린다.
+	 * host 하나에 callback 은 하나이며 다시 resolve 하면 바뀐다.
+	 */
+	public void resolve(String host, Callback callback) {
+		Entry entry = this.entries.get(host);
+		long now = System.currentTimeMillis();
+		boolean fresh;
+		
+		if (entry == null) {
+			Entry e = this.entries.putIfAbsent(host, entry = new Entry(host));
+			
+			if (e != null) {
+				entry = e;
+			}
+		}
+		
+		synchronized(entry) {
+			entry.callback = callback;
+			
+			fresh = entry.resolved && entry.expires > now;
+			
+			entry.notified = fresh;
+			
+			// 찾는 중이면 끝난 뒤에 새 callback 에 알리고 다음 일정을 잡는다.
+			if (entry.future == null && !entry.running) {
+				entry.future = this.executor.schedule(entry, fresh? entry.expires - now: 0, TimeUnit.MILLISECONDS);
+			}
+		}
+		
+		if (fresh) {
+			callback.onResolve(host, entry.address);
+		}
+	}
+	
+	/**
+	 * 다시 찾지 않는다. 결과는 ttl 이 지날 때까지 기억한다.
+	 */
+	public void cancel(String host) {
+		Entry entry = this.entries.get(host);
+		long delay;
+		
+		if (entry == null) {
+			return;
+		}
+		
+		synchronized(entry) {
+			entry.callback = null;
+			
+			if (entry.future != null) {
+				entry.future.cancel(false);
+				
+				entry.future = null;
+			}
+			
+			delay = entry.expires - System.currentTimeMillis();
+		}
+		
+		purge(entry, delay);
+	}
+	
+	private void purge(final Entry entry, long delay) {
+		this.executor.schedule(new Runnable() {
+
+			@Override
+			public void run() {
+				synchronized(entry) {
+					if (entry.callback == null && !entry.running && entry.expires <= System.currentTimeMillis()) {
+						entries.remove(entry.host, entry);
+					}
+				}
+			}
+		}, Math.max(0, delay), TimeUnit.MILLISECONDS);
+	}
+	
+	public int getSize() {
+		return this.entries.size();
+	}
+	
+	@Override
+	public void close() throws IOException {
+		this.executor.shutdownNow();
+	}
+	
+	class Entry implements Runnable {
+		
+		private final String host;
+		private volatile InetAddress address;
+		private long expires = 0;
+		private boolean resolved = false;
+		private boolean notified = false;
+		private boolean running = false;
+		private Callback callback;
+		private ScheduledFuture<?> future;
+		
+		public Entry(String host) {
+			this.host = host;
+		}
+		
+		@Override
+		public void run() {
+			InetAddress address = null;
+			Callback callback;
+			long delay;
+			
+			synchronized(this) {
+				this.running = true;
+			}
+			
+			try {
+				address = lookup.lookup(this.host);
+			} catch (UnknownHostException uhe) {
+			} catch (RuntimeException re) {
+				re.printStackTrace();
+			}
+			
+			if (executor.isShutdown()) {
+				return;
+			}
+			
+			synchronized(this) {
+				callback = this.callback;
+				
+				if (this.notified && (address == null? this.address == null: address.equals(this.address))) {
+					callback = null;
+				}
+				
+				this.address = address;
+				this.resolved = true;
+				this.running = false;
+				
+				delay = address == null? negative: ttl;
+				
+				this.expires = System.currentTimeMillis() + delay;
+				
+				if (this.callback == null) {
+					this.future = null;
+					
+					purge(this, delay);
+				}
+				else {
+					this.notified = true;
+					
+					this.future = executor.schedule(this, delay, TimeUnit.MILLISECONDS);
+				}
+			}
+			
+			if (callback != null) {
+				callback.onResolve(this.host, address);
+			}
+		}
+		
+	}
+	
+}
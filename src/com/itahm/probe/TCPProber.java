@@ -0,0 +1,208 @@
+package com.itahm.probe;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * non-blocking TCP connect 로 도달성을 확인하는 prober.
+ * 하나의 selector thread 가 동시에 진행중인 모든 probe 를 처리한다.
+ * 연결이 성립하거나 거부(RST, ConnectException)되면 대상이 응답한 것이므로 reachable 로 판단한다.
+ * host 나 network 에 닿지 못한 경우(NoRouteToHostException 등)와 timeout 은 unreachable 이다.
+ */
+public class TCPProber implements Prober, Runnable {
+
+	public final static int ECHO = 7;
+	
+	private final Selector selector;
+	private final int port;
+	private final Queue<Pending> queue = new ConcurrentLinkedQueue<Pending>();
+	private final PriorityQueue<Pending> deadlines = new PriorityQueue<Pending>();
+	private final Thread thread;
+	private volatile boolean closed = false;
+	
+	public TCPProber() throws IOException {
+		this(ECHO);
+	}
+	
+	public TCPProber(int port) throws IOException {
+		this.port = port;
+		this.selector = Selector.open();
+		
+		this.thread = new Thread(this, "tcp-prober");
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+	
+	@Override
+	public void probe(InetAddress target, int timeout, Callback callback) {
+		this.queue.add(new Pending(target, timeout, callback));
+		
+		this.selector.wakeup();
+	}
+	
+	private void onRegister(Pending pending) {
+		SocketChannel channel = null;
+		
+		try {
+			channel = SocketChannel.open();
+			channel.configureBlocking(false);
+			
+			pending.channel = channel;
+			pending.start = System.nanoTime();
+			pending.deadline = pending.start + TimeUnit.MILLISECONDS.toNanos(pending.timeout);
+			
+			if (channel.connect(new InetSocketAddress(pending.target, this.port))) {
+				complete(pending, true);
+			}
+			else {
+				channel.register(this.selector, SelectionKey.OP_CONNECT, pending);
+				
+				this.deadlines.add(pending);
+			}
+		} catch (ConnectException ce) {
+			// 거부(RST)
+			complete(pending, true);
+		} catch (IOException ioe) {
+			complete(pending, false);
+		}
+	}
+	
+	private void onConnect(SelectionKey key) {
+		Pending pending = (Pending)key.attachment();
+		
+		try {
+			complete(pending, pending.channel.finishConnect());
+		} catch (ConnectException ce) {
+			// 거부(RST)
+			complete(pending, true);
+		} catch (IOException ioe) {
+			complete(pending, false);
+		}
+	}
+	
+	private void onExpire(long now) {
+		Pending pending;
+		
+		while ((pending = this.deadlines.peek()) != null && pending.deadline <= now) {
+			this.deadlines.poll();
+			
+			complete(pending, false);
+		}
+	}
+	
+	private void complete(Pending pending, boolean reachable) {
+		if (pending.done) {
+			return;
+		}
+		
+		pending.done = true;
+		
+		if (pending.channel != null) {
+			try {
+				pending.channel.close();
+			} catch (IOException ioe) {
+			}
+		}
+		
+		pending.callback.onResult(reachable, reachable? TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - pending.start): -1);
+	}
+	
+	@Override
+	public void run() {
+		Iterator<SelectionKey> iterator;
+		SelectionKey key;
+		Pending pending;
+		long wait;
+		
+		while (!this.closed) {
+			while ((pending = this.queue.poll()) != null) {
+				onRegister(pending);
+			}
+			
+			pending = this.deadlines.peek();
+			wait = pending == null? 0: Math.max(1, TimeUnit.NANOSECONDS.toMillis(pending.deadline - System.nanoTime()));
+			
+			try {
+				this.selector.select(wait);
+			} catch (IOException ioe) {
+				ioe.printStackTrace();
+				
+				continue;
+			}
+			
+			iterator = this.selector.selectedKeys().iterator();
+			while (iterator.hasNext()) {
+				key = iterator.next();
+				iterator.remove();
+				
+				if (key.isValid() && key.isConnectable()) {
+					onConnect(key);
+				}
+			}
+			
+			onExpire(System.nanoTime());
+		}
+		
+		for (SelectionKey k : this.selector.keys()) {
+			try {
+				k.channel().close();
+			} catch (IOException ioe) {
+			}
+		}
+		
+		try {
+			this.selector.close();
+		} catch (IOException ioe) {
+			ioe.printStackTrace();
+		}
+	}
+	
+	/**
+	 * 연결은 하나의 selector 가 non-blocking 으로 맺으므로 정해진 한계가 없다.
+	 */
+	@Override
+	public int getCapacity() {
+		return Integer.MAX_VALUE;
+	}
+	
+	@Override
+	public void close() {
+		this.closed = true;
+		
+		this.selector.wakeup();
+	}
+	
+	private static class Pending implements Comparable<Pending> {
+		
+		private final InetAddress target;
+		private final int timeout;
+		private final Callback callback;
+		private SocketChannel channel;
+		private long start;
+		private long deadline;
+		private boolean done = false;
+		
+		private Pending(InetAddress target, int timeout, Callback callback) {
+			this.target = target;
+			this.timeout = timeout;
+			this.callback = callback;
+		}
+		
+		@Override
+		public int compareTo(Pending o) {
+			return Long.compare(this.deadline, o.deadline);
+		}
+		
+	}
+	
+}
@@ -0,0 +1,397 @@
+package com.itahm.store;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * snapshot 파일과 node 단위 변경을 기록하는 append-only log.
+ * log 가 커지면 background 에서 snapshot 으로 compaction 한다.
+ * 
+ * record: [payload length(4)][crc32(4)][op(1)][key length(4)][key][value]
+ */
+public class Journal implements Closeable {
+
+	public enum Sync {
+		ALWAYS, INTERVAL, NEVER
+	};
+	
+	public interface Source {
+		/**
+		 * Journal 의 lock 을 잡은 상태에서 호출되므로 Journal 을 사용하는 다른 thread 를 기다려서는 안된다.
+		 */
+		public String snapshot();
+	}
+	
+	public interface Replay {
+		public void onPut(String key, String value);
+		public void onRemove(String key);
+	}
+	
+	private final static byte PUT = 1;
+	private final static byte REMOVE = 2;
+	private final static int HEADER = 8;
+	private final static long SYNC_INTERVAL = 1000;
+	private final static long MIN_COMPACT_SIZE = 1024 * 1024;
+	
+	private final File snapshot;
+	private final File log;
+	private final File old;
+	private final Sync sync;
+	private final Source source;
+	private final ScheduledExecutorService executor;
+	private final CRC32 crc = new CRC32();
+	private FileChannel channel;
+	private ByteBuffer pending = ByteBuffer.allocate(4096);
+	private long snapshotSize;
+	private boolean dirty = false;
+	private boolean compacting = false;
+	private boolean closed = false;
+	
+	public Journal(File snapshot, Sync sync, Source source) throws IOException {
+		this.snapshot = snapshot;
+		this.log = new File(snapshot.getPath() +".log");
+		this.old = new File(snapshot.getPath() +".log.old");
+		this.sync = sync;
+		this.source = source;
+		this.snapshotSize = snapshot.length();
+		
+		this.channel = open(this.log);
+		
+		this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "journal");
+				
+				thread.setDaemon(true);
+				
+				return thread;
+			}
+		});
+		
+		if (sync == Sync.INTERVAL) {
+			this.executor.scheduleWithFixedDelay(new Runnable() {
+
+				@Override
+				public void run() {
+					force();
+				}
+			}, SYNC_INTERVAL, SYNC_INTERVAL, TimeUnit.MILLISECONDS);
+		}
+	}
+	
+	private static FileChannel open(File file) throws IOException {
+		@SuppressWarnings("resource")
+		FileChannel channel = new RandomAccessFile(file, "rw").getChannel();
+		
+		channel.position(channel.size());
+		
+		return channel;
+	}
+	
+	public String readSnapshot() throws IOException {
+		if (!this.snapshot.isFile()) {
+			return null;
+		}
+		
+		return new String(Files.readAllBytes(this.snapshot.toPath()), StandardCharsets.UTF_8);
+	}
+	
+	/**
+	 * 마지막 snapshot 이후의 변경을 순서대로 재생한다.
+	 * 비정상 종료로 잘린 마지막 record 는 버린다.
+	 * @return 재생한 record 수
+	 */
+	public synchronized int replay(Replay replay) throws IOException {
+		int count = 0;
+		
+		if (this.old.isFile()) {
+			try (FileChannel fc = new RandomAccessFile(this.old, "r").getChannel()) {
+				count += replay(fc, replay);
+			}
+		}
+		
+		count += replay(this.channel, replay);
+		
+		this.channel.truncate(this.channel.position());
+		
+		return count;
+	}
+	
+	private int replay(FileChannel fc, Replay replay) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER);
+		ByteBuffer payload;
+		long position = 0;
+		long size = fc.size();
+		int length;
+		int count = 0;
+		
+		fc.position(0);
+		
+		while (position + HEADER <= size) {
+			header.clear();
+			
+			while (header.hasRemaining() && fc.read(header) > 0);
+			
+			header.flip();
+			
+			length = header.getInt();
+			
+			if (length < 5 || position + HEADER + length > size) {
+				break;
+			}
+			
+			payload = ByteBuffer.allocate(length);
+			
+			while (payload.hasRemaining() && fc.read(payload) > 0);
+			
+			this.crc.reset();
+			this.crc.update(payload.array(), 0, length);
+			
+			if ((int)this.crc.getValue() != header.getInt()) {
+				break;
+			}
+			
+			payload.flip();
+			
+			if (!apply(payload, replay)) {
+				break;
+			}
+			
+			position += HEADER + length;
+			count++;
+		}
+		
+		fc.position(position);
+		
+		return count;
+	}
+	
+	private static boolean apply(ByteBuffer payload, Replay replay) {
+		byte op = payload.get();
+		int length = payload.getInt();
+		
+		if (length < 0 || length > payload.remaining()) {
+			return false;
+		}
+		
+		String key = new String(payload.array(), payload.position(), length, StandardCharsets.UTF_8);
+		
+		payload.position(payload.position() + length);
+		
+		switch (op) {
+		case PUT:
+			replay.onPut(key, new String(payload.array(), payload.position(), payload.remaining(), StandardCharsets.UTF_8));
+			
+			return true;
+		case REMOVE:
+			replay.onRemove(key);
+			
+			return true;
+		}
+		
+		return false;
+	}
+	
+	public synchronized void put(String key, String value) {
+		append(PUT, key, value.getBytes(StandardCharsets.UTF_8));
+	}
+	
+	public synchronized void remove(String key) {
+		append(REMOVE, key, new byte [0]);
+	}
+	
+	private void append(byte op, String key, byte [] value) {
+		byte [] bytes = key.getBytes(StandardCharsets.UTF_8);
+		int length = 1 + 4 + bytes.length + value.length;
+		int start;
+		
+		if (this.pending.remaining() < HEADER + length) {
+			ByteBuffer buffer = ByteBuffer.allocate(Math.max(this.pending.capacity() *2, this.pending.position() + HEADER + length));
+			
+			this.pending.flip();
+			buffer.put(this.pending);
+			
+			this.pending = buffer;
+		}
+		
+		this.pending.putInt(length);
+		this.pending.putInt(0);
+		
+		start = this.pending.position();
+		
+		this.pending.put(op);
+		this.pending.putInt(bytes.length);
+		this.pending.put(bytes);
+		this.pending.put(value);
+		
+		this.crc.reset();
+		this.crc.update(this.pending.array(), start, length);
+		this.pending.putInt(start - 4, (int)this.crc.getValue());
+	}
+	
+	/**
+	 * put, remove 로 쌓인 record 를 log 에 기록하고 sync 정책에 따라 disk 에 반영한다.
+	 */
+	public synchronized void commit() throws IOException {
+		if (this.closed || this.pending.position() == 0) {
+			return;
+		}
+		
+		this.pending.flip();
+		
+		try {
+			while (this.pending.hasRemaining()) {
+				this.channel.write(this.pending);
+			}
+		} finally {
+			this.pending.clear();
+		}
+		
+		switch (this.sync) {
+		case ALWAYS:
+			this.channel.force(false);
+			
+			break;
+		case INTERVAL:
+			this.dirty = true;
+			
+			break;
+		case NEVER:
+		}
+		
+		if (!this.compacting && this.channel.size() > Math.max(MIN_COMPACT_SIZE, this.snapshotSize)) {
+			this.compacting = true;
+			
+			this.executor.execute(new Runnable() {
+
+				@Override
+				public void run() {
+					try {
+						compact();
+					} catch (IOException ioe) {
+						ioe.printStackTrace();
+					}
+				}
+			});
+		}
+	}
+	
+	private synchronized void force() {
+		if (this.closed || !this.dirty) {
+			return;
+		}
+		
+		try {
+			this.channel.force(false);
+			
+			this.dirty = false;
+		} catch (IOException ioe) {
+			ioe.printStackTrace();
+		}
+	}
+	
+	/**
+	 * 현재 상태를 snapshot 으로 기록하고 그 이전의 log 를 버린다.
+	 * snapshot 을 쓰는 동안에도 commit 은 새 log 에 계속된다.
+	 */
+	public void compact() throws IOException {
+		String snapshot;
+		File temp = new File(this.snapshot.getPath() +".tmp");
+		
+		synchronized(this) {
+			if (this.closed) {
+				return;
+			}
+			
+			snapshot = this.source.snapshot();
+			
+			this.channel.force(false);
+			
+			if (this.old.isFile()) {
+				// 이전 compaction 이 끝나지 못했으므로 이어 붙인다.
+				try (FileChannel fc = open(this.old)) {
+					this.channel.transferTo(0, this.channel.size(), fc);
+					
+					fc.force(false);
+				}
+				
+				this.channel.truncate(0);
+			}
+			else {
+				this.channel.close();
+				
+				Files.move(this.log.toPath(), this.old.toPath(), StandardCopyOption.ATOMIC_MOVE);
+				
+				this.channel = open(this.log);
+			}
+			
+			this.dirty = false;
+		}
+		
+		try {
+			byte [] bytes = snapshot.getBytes(StandardCharsets.UTF_8);
+			
+			try (FileChannel fc = new RandomAccessFile(temp, "rw").getChannel()) {
+				ByteBuffer buffer = ByteBuffer.wrap(bytes);
+				
+				fc.truncate(0);
+				
+				while (buffer.hasRemaining()) {
+					fc.write(buffer);
+				}
+				
+				fc.force(true);
+			}
+			
+			Files.move(temp.toPath(), this.snapshot.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			Files.deleteIfExists(this.old.toPath());
+			
+			synchronized(this) {
+				this.snapshotSize = bytes.length;
+			}
+		} finally {
+			synchronized(this) {
+				this.compacting = false;
+			}
+		}
+	}
+	
+	@Override
+	public void close() throws IOException {
+		this.executor.shutdown();
+		
+		try {
+			this.executor.awaitTermination(SYNC_INTERVAL, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		}
+		
+		synchronized(this) {
+			if (this.closed) {
+				return;
+			}
+			
+			this.closed = true;
+			
+			try {
+				this.channel.force(false);
+			} finally {
+				this.channel.close();
+			}
+		}
+	}
+	
+}
@@ -0,0 +1,373 @@
+package com.itahm.store;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * node 별 probe 결과 저장소.
+ * 
+ * node 마다 directory 를 두고 하루(UTC) 단위로 두 개의 memory-mapped segment 를 쓴다.
+ * <day>.raw: [count(8)][pad(8)] 뒤로 [time(8)][rtt(4)][reachable(4)] 고정 길이 record 를 시간순으로 append.
+ * <day>.sum: 1440 개의 분 단위 slot [count(4)][up(4)][rtt sum(8)][rtt min(4)][rtt max(4)], 분으로 바로 찾아간다.
+ * raw 와 요약은 각각의 보관 기간이 지나면 삭제된다.
+ */
+public class TimeSeries implements Closeable {
+
+	/**
+	 * false 를 돌려주면 읽기를 멈춘다.
+	 */
+	public interface Reader {
+		public boolean onRecord(long time, boolean reachable, int rtt);
+	}
+	
+	/**
+	 * false 를 돌려주면 읽기를 멈춘다.
+	 */
+	public interface SummaryReader {
+		public boolean onSummary(long time, int count, int up, long rttSum, int rttMin, int rttMax);
+	}
+	
+	private final static long MINUTE = TimeUnit.MINUTES.toMillis(1);
+	private final static long DAY = TimeUnit.DAYS.toMillis(1);
+	private final static int SLOTS = (int)(DAY / MINUTE);
+	private final static int RAW_HEADER = 16;
+	private final static int RAW_SIZE = 16;
+	private final static int SUM_SIZE = 24;
+	private final static String RAW = ".raw";
+	private final static String SUM = ".sum";
+	
+	private final File root;
+	private final int capacity;
+	private final long rawRetention;
+	private final long sumRetention;
+	private final Map<String, Series> series = new ConcurrentHashMap<String, Series>();
+	private final ScheduledExecutorService executor;
+	
+	/**
+	 * @param capacity 하루에 저장할 수 있는 raw record 수
+	 * @param rawDays raw record 보관 일수
+	 * @param sumDays 분 단위 요약 보관 일수
+	 */
+	public TimeSeries(File root, int capacity, int rawDays, int sumDays) throws IOException {
+		this.root = root;
+		this.capacity = capacity;
+		this.rawRetention = rawDays;
+		this.sumRetention = sumDays;
+		
+		if (!root.isDirectory() && !root.mkdirs()) {
+			throw new IOException("can not create "+ root);
+		}
+		
+		this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "time-series");
+				
+				thread.setDaemon(true);
+				
+				return thread;
+			}
+		});
+		
+		this.executor.scheduleWithFixedDelay(new Runnable() {
+
+			@Override
+			public void run() {
+				clean();
+			}
+		}, 0, 1, TimeUnit.HOURS);
+	}
+	
+	public void record(String id, long time, boolean reachable, long rtt) {
+		Series series = this.series.get(id);
+		
+		if (series == null) {
+			try {
+				series = new Series(directory(id));
+			} catch (IOException ioe) {
+				ioe.printStackTrace();
+				
+				return;
+			}
+			
+			Series old = this.series.putIfAbsent(id, series);
+			
+			if (old != null) {
+				series = old;
+			}
+		}
+		
+		try {
+			series.record(time, reachable, (int)Math.min(Integer.MAX_VALUE, rtt));
+		} catch (IOException ioe) {
+			ioe.printStackTrace();
+		}
+	}
+	
+	public void remove(String id) {
+		Series series = this.series.remove(id);
+		
+		if (series != null) {
+			series.close();
+		}
+	}
+	
+	/**
+	 * [from, to) 구간의 raw record 를 시간순으로 읽는다.
+	 */
+	public void read(String id, long from, long to, Reader reader) throws IOException {
+		File dir = directory(id);
+		ByteBuffer buffer;
+		long count;
+		int index;
+		long time;
+		
+		for (long day = from / DAY, end = (to - 1) / DAY; day <= end; day++) {
+			buffer = load(new File(dir, day + RAW));
+			
+			if (buffer == null || buffer.limit() < RAW_HEADER) {
+				continue;
+			}
+			
+			count = Math.min(buffer.getLong(0), (buffer.limit() - RAW_HEADER) / RAW_SIZE);
+			
+			for (index = search(buffer, (int)count, from); index < count; index++) {
+				time = buffer.getLong(RAW_HEADER + index * RAW_SIZE);
+				
+				if (time >= to || !reader.onRecord(time,
+					buffer.getInt(RAW_HEADER + index * RAW_SIZE + 12) != 0,
+					buffer.getInt(RAW_HEADER + index * RAW_SIZE + 8))) {
+					return;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * [from, to) 구간을 step(분의 배수) 단위로 묶은 요약을 읽는다. 기록이 없는 구간은 건너뛴다.
+	 */
+	public void summarize(String id, long from, long to, long step, SummaryReader reader) throws IOException {
+		File dir = directory(id);
+		ByteBuffer buffer = null;
+		long loaded = -1;
+		long bucket = -1;
+		int count = 0, up = 0, rttMin = Integer.MAX_VALUE, rttMax = -1;
+		long rttSum = 0;
+		int offset, n;
+		long day;
+		
+		step = Math.max(MINUTE, step - step % MINUTE);
+		
+		for (long minute = from - from % MINUTE; minute < to; minute += MINUTE) {
+			day = minute / DAY;
+			
+			if (day != loaded) {
+				loaded = day;
+				buffer = load(new File(dir, day + SUM));
+			}
+			
+			if (minute - minute % step != bucket) {
+				if (count > 0 && !reader.onSummary(bucket, count, up, rttSum, rttMin, rttMax)) {
+					return;
+				}
+				
+				bucket = minute - minute % step;
+				count = up = 0;
+				rttSum = 0;
+				rttMin = Integer.MAX_VALUE;
+				rttMax = -1;
+			}
+			
+			offset = (int)(minute % DAY / MINUTE) * SUM_SIZE;
+			
+			if (buffer == null || buffer.limit() < offset + SUM_SIZE || (n = buffer.getInt(offset)) == 0) {
+				continue;
+			}
+			
+			count += n;
+			
+			if (buffer.getInt(offset + 4) > 0) {
+				up += buffer.getInt(offset + 4);
+				rttSum += buffer.getLong(offset + 8);
+				rttMin = Math.min(rttMin, buffer.getInt(offset + 16));
+				rttMax = Math.max(rttMax, buffer.getInt(offset + 20));
+			}
+		}
+		
+		if (count > 0) {
+			reader.onSummary(bucket, count, up, rttSum, rttMin, rttMax);
+		}
+	}
+	
+	/**
+	 * segment 를 읽기 전용으로 mapping 한다. 기록중인 segment 와 같은 page 를 보므로 heap 에 복사하지 않는다.
+	 */
+	private static ByteBuffer load(File file) throws IOException {
+		if (!file.isFile()) {
+			return null;
+		}
+		
+		try (FileChannel fc = new RandomAccessFile(file, "r").getChannel()) {
+			return fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+		}
+	}
+	
+	private static int search(ByteBuffer buffer, int count, long time) {
+		int low = 0, high = count, mid;
+		
+		while (low < high) {
+			mid = (low + high) >>> 1;
+			
+			if (buffer.getLong(RAW_HEADER + mid * RAW_SIZE) < time) {
+				low = mid + 1;
+			}
+			else {
+				high = mid;
+			}
+		}
+		
+		return low;
+	}
+	
+	private File directory(String id) {
+		try {
+			return new File(this.root, URLEncoder.encode(id, StandardCharsets.UTF_8.name()));
+		} catch (UnsupportedEncodingException uee) {
+			throw new IllegalStateException(uee);
+		}
+	}
+	
+	private void clean() {
+		File [] dirs = this.root.listFiles();
+		File [] files;
+		long today = System.currentTimeMillis() / DAY;
+		String name;
+		long day;
+		
+		if (dirs == null) {
+			return;
+		}
+		
+		for (File dir : dirs) {
+			files = dir.listFiles();
+			
+			if (files == null) {
+				continue;
+			}
+			
+			for (File file : files) {
+				name = file.getName();
+				
+				try {
+					day = Long.parseLong(name.substring(0, name.indexOf('.')));
+				} catch (NumberFormatException | IndexOutOfBoundsException e) {
+					continue;
+				}
+				
+				if (name.endsWith(RAW) && day < today - this.rawRetention
+					|| name.endsWith(SUM) && day < today - this.sumRetention) {
+					file.delete();
+				}
+			}
+		}
+	}
+	
+	@Override
+	public void close() {
+		this.executor.shutdownNow();
+		
+		for (Series series : this.series.values()) {
+			series.close();
+		}
+		
+		this.series.clear();
+	}
+	
+	private static MappedByteBuffer map(File file, long size) throws IOException {
+		try (FileChannel fc = new RandomAccessFile(file, "rw").getChannel()) {
+			return fc.map(FileChannel.MapMode.READ_WRITE, 0, size);
+		}
+	}
+	
+	class Series {
+		
+		private final File dir;
+		private long day = -1;
+		private MappedByteBuffer raw;
+		private MappedByteBuffer sum;
+		private long count;
+		
+		private Series(File dir) throws IOException {
+			this.dir = dir;
+			
+			if (!dir.isDirectory() && !dir.mkdirs()) {
+				throw new IOException("can not create "+ dir);
+			}
+		}
+		
+		private synchronized void record(long time, boolean reachable, int rtt) throws IOException {
+			long day = time / DAY;
+			int offset;
+			int up;
+			
+			if (day != this.day) {
+				close();
+				
+				this.raw = map(new File(this.dir, day + RAW), RAW_HEADER + (long)capacity * RAW_SIZE);
+				this.sum = map(new File(this.dir, day + SUM), SLOTS * SUM_SIZE);
+				this.count = Math.min(this.raw.getLong(0), capacity);
+				this.day = day;
+			}
+			
+			if (this.count < capacity) {
+				offset = (int)(RAW_HEADER + this.count * RAW_SIZE);
+				
+				this.raw.putLong(offset, time);
+				this.raw.putInt(offset + 8, reachable? rtt: -1);
+				this.raw.putInt(offset + 12, reachable? 1: 0);
+				this.raw.putLong(0, ++this.count);
+			}
+			
+			offset = (int)(time % DAY / MINUTE) * SUM_SIZE;
+			
+			this.sum.putInt(offset, this.sum.getInt(offset) + 1);
+			
+			if (reachable) {
+				up = this.sum.getInt(offset + 4);
+				
+				this.sum.putInt(offset + 4, up + 1);
+				this.sum.putLong(offset + 8, this.sum.getLong(offset + 8) + rtt);
+				this.sum.putInt(offset + 16, up == 0? rtt: Math.min(this.sum.getInt(offset + 16), rtt));
+				this.sum.putInt(offset + 20, up == 0? rtt: Math.max(this.sum.getInt(offset + 20), rtt));
+			}
+		}
+		
+		private synchronized void close() {
+			if (this.raw != null) {
+				this.raw.force();
+				this.sum.force();
+				
+				this.raw = null;
+				this.sum = null;
+				this.day = -1;
+			}
+		}
+		
+	}
+	
+}
@@ -0,0 +1,175 @@
+package com.itahm.probe;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * DNS 대신 주소를 바꿀 수 있는 Lookup 으로 Resolver 의 cache 동작을 확인한다.
+ */
+public class ResolverTest {
+	
+	private final static String HOST = "node.test";
+	// 결과가 없음을 나타낸다. BlockingQueue 에는 null 을 넣을 수 없다.
+	private final static String NONE = "none";
+	private final static long WAIT = 2000;
+	
+	private final Fake lookup = new Fake();
+	private final Events events = new Events();
+	private Resolver resolver;
+	
+	@After
+	public void tearDown() throws Exception {
+		if (this.resolver != null) {
+			this.resolver.close();
+		}
+	}
+	
+	@Test
+	public void cachedWithinTtl() throws Exception {
+		this.resolver = new Resolver(this.lookup, 60000, 60000, 2);
+		this.lookup.set(HOST, "10.0.0.1");
+		
+		this.resolver.resolve(HOST, this.events);
+		
+		assertEquals("10.0.0.1", this.events.next(WAIT));
+		
+		Events second = new Events();
+		
+		// 기억하고 있는 결과는 호출한 thread 에서 바로 알린다.
+		this.resolver.resolve(HOST, second);
+		
+		assertEquals("10.0.0.1", second.next(0));
+		assertEquals(1, this.lookup.count());
+	}
+	
+	@Test
+	public void lookedUpAgainAfterTtl() throws Exception {
+		this.resolver = new Resolver(this.lookup, 200, 200, 2);
+		this.lookup.set(HOST, "10.0.0.1");
+		
+		this.resolver.resolve(HOST, this.events);
+		
+		assertEquals("10.0.0.1", this.events.next(WAIT));
+		
+		Thread.sleep(700);
+		
+		assertTrue(this.lookup.count() >= 3);
+		// 주소가 그대로이면 다시 알리지 않는다.
+		assertNull(this.events.next(0));
+	}
+	
+	@Test
+	public void notifiedOnlyWhenAddressChanges() throws Exception {
+		this.resolver = new Resolver(this.lookup, 200, 200, 2);
+		this.lookup.set(HOST, "10.0.0.1");
+		
+		this.resolver.resolve(HOST, this.events);
+		
+		assertEquals("10.0.0.1", this.events.next(WAIT));
+		
+		this.lookup.set(HOST, "10.0.0.2");
+		
+		assertEquals("10.0.0.2", this.events.next(WAIT));
+		assertNull(this.events.next(500));
+	}
+	
+	@Test
+	public void negativeTtl() throws Exception {
+		this.resolver = new Resolver(this.lookup, 60000, 100, 2);
+		
+		this.resolver.resolve(HOST, this.events);
+		
+		assertEquals(NONE, this.events.next(WAIT));
+		
+		// ttl 이 아니라 negative ttl 이 지나면 다시 찾는다.
+		Thread.sleep(400);
+		
+		assertTrue(this.lookup.count() >= 2);
+		
+		this.lookup.set(HOST, "10.0.0.1");
+		
+		assertEquals("10.0.0.1", this.events.next(WAIT));
+	}
+	
+	@Test
+	public void purgedAfterCancel() throws Exception {
+		int count;
+		
+		this.resolver = new Resolver(this.lookup, 300, 300, 2);
+		this.lookup.set(HOST, "10.0.0.1");
+		
+		this.resolver.resolve(HOST, this.events);
+		
+		assertEquals("10.0.0.1", this.events.next(WAIT));
+		
+		this.resolver.cancel(HOST);
+		
+		count = this.lookup.count();
+		
+		// ttl 이 지날 때까지는 기억하고, 지나면 다시 찾지 않고 버린다.
+		assertEquals(1, this.resolver.getSize());
+		
+		Thread.sleep(800);
+		
+		assertEquals(0, this.resolver.getSize());
+		assertEquals(count, this.lookup.count());
+		assertNull(this.events.next(0));
+	}
+	
+	private static class Fake implements Resolver.Lookup {
+		
+		private final Map<String, InetAddress> addresses = new ConcurrentHashMap<String, InetAddress>();
+		private final AtomicInteger count = new AtomicInteger();
+		
+		private void set(String host, String ip) throws UnknownHostException {
+			this.addresses.put(host, InetAddress.getByName(ip));
+		}
+		
+		private int count() {
+			return this.count.get();
+		}
+		
+		@Override
+		public InetAddress lookup(String host) throws UnknownHostException {
+			InetAddress address = this.addresses.get(host);
+			
+			this.count.incrementAndGet();
+			
+			if (address == null) {
+				throw new UnknownHostException(host);
+			}
+			
+			return address;
+		}
+		
+	}
+	
+	private static class Events implements Resolver.Callback {
+		
+		private final BlockingQueue<String> queue = new LinkedBlockingQueue<String>();
+		
+		@Override
+		public void onResolve(String host, InetAddress address) {
+			this.queue.add(address == null? NONE: address.getHostAddress());
+		}
+		
+		private String next(long timeout) throws InterruptedException {
+			return this.queue.poll(timeout, TimeUnit.MILLISECONDS);
+		}
+		
+	}
+	
+}
@@ -0,0 +1,121 @@
+package com.itahm.probe;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * loopback 의 ServerSocket 을 대상 대신 probe 한다.
+ */
+public class TCPProberTest {
+	
+	private final static int TIMEOUT = 500;
+	
+	private final InetAddress loopback = InetAddress.getLoopbackAddress();
+	
+	@Test
+	public void openPortIsReachable() throws Exception {
+		try (ServerSocket server = new ServerSocket(0, 50, this.loopback)) {
+			Result result = probe(server.getLocalPort());
+			
+			assertTrue(result.reachable);
+			assertTrue(result.rtt >= 0);
+		}
+	}
+	
+	@Test
+	public void refusedPortIsReachable() throws Exception {
+		int port;
+		
+		// 닫힌 port 는 RST 로 거부되며, 대상이 응답한 것이다.
+		try (ServerSocket server = new ServerSocket(0, 50, this.loopback)) {
+			port = server.getLocalPort();
+		}
+		
+		Result result = probe(port);
+		
+		assertTrue(result.reachable);
+		assertTrue(result.rtt >= 0);
+	}
+	
+	@Test
+	public void silentPortIsUnreachable() throws Exception {
+		List<Socket> sockets = new ArrayList<Socket>();
+		
+		// accept 하지 않는 listen queue 가 차면 SYN 에 답하지 않으므로 응답이 없는 대상과 같다.
+		try (ServerSocket server = new ServerSocket(0, 1, this.loopback)) {
+			while (sockets.size() < 16) {
+				Socket socket = new Socket();
+				
+				sockets.add(socket);
+				
+				try {
+					socket.connect(new InetSocketAddress(this.loopback, server.getLocalPort()), 200);
+				} catch (SocketTimeoutException ste) {
+					break;
+				}
+			}
+			
+			Result result = probe(server.getLocalPort());
+			
+			assertFalse(result.reachable);
+			assertEquals(-1, result.rtt);
+		} finally {
+			for (Socket socket : sockets) {
+				socket.close();
+			}
+		}
+	}
+	
+	private Result probe(int port) throws IOException, InterruptedException {
+		final BlockingQueue<Result> results = new ArrayBlockingQueue<Result>(1);
+		TCPProber prober = new TCPProber(port);
+		Result result;
+		
+		try {
+			prober.probe(this.loopback, TIMEOUT, new Prober.Callback() {
+
+				@Override
+				public void onResult(boolean reachable, long rtt) {
+					results.add(new Result(reachable, rtt));
+				}
+			});
+			
+			result = results.poll(TIMEOUT * 4, TimeUnit.MILLISECONDS);
+		} finally {
+			prober.close();
+		}
+		
+		assertNotNull("no result within timeout", result);
+		
+		return result;
+	}
+	
+	private static class Result {
+		
+		private final boolean reachable;
+		private final long rtt;
+		
+		private Result(boolean reachable, long rtt) {
+			this.reachable = reachable;
+			this.rtt = rtt;
+		}
+		
+	}
+	
+}